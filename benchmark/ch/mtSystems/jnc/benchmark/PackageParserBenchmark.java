@@ -0,0 +1,127 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ch.mtSystems.jnc.model.utilities.ClassUtilities;
+import ch.mtSystems.jnc.model.utilities.FileUtilities;
+
+
+/**
+ * Compares the streaming package parser of ClassUtilities with the former
+ * regular expression implementation, which is kept here as reference. It's
+ * not part of JNC, compile it against the JNC classes. Usage:
+ * PackageParserBenchmark sourceDir [rounds]
+ */
+public class PackageParserBenchmark
+{
+	private static final Pattern pComment1 = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
+	private static final Pattern pComment2 = Pattern.compile("//.*");
+	private static final Pattern pPackage = Pattern.compile("package\\s+([^;]+);");
+
+
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length < 1 || args.length > 2)
+		{
+			System.err.println("Usage: PackageParserBenchmark sourceDir [rounds]");
+			return;
+		}
+
+		List<File> files = new LinkedList<File>();
+		collectSources(new File(args[0]), files);
+		int rounds = (args.length == 2) ? Integer.parseInt(args[1]) : 5;
+		long totalSize = 0;
+		for(File f : files) totalSize += f.length();
+		System.out.println(files.size() + " sources, " + (totalSize / 1024) + "kb, " + rounds + " rounds");
+
+		// both have to find the same packages
+		int differences = 0;
+		for(File f : files)
+		{
+			String streaming = ClassUtilities.getPackage(f);
+			String regex = getPackageFromSourceRegex(f);
+			if(streaming == null ? regex != null : !streaming.equals(regex))
+			{
+				System.out.println("different: " + f + " (streaming: " + streaming + ", regex: " + regex + ")");
+				differences++;
+			}
+		}
+
+		long regexTime = 0, streamingTime = 0;
+		for(int i=0; i<rounds; i++)
+		{
+			long start = System.nanoTime();
+			for(File f : files) getPackageFromSourceRegex(f);
+			regexTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(File f : files) ClassUtilities.getPackage(f);
+			streamingTime += System.nanoTime() - start;
+		}
+
+		System.out.println("regex:     " + (regexTime / rounds / 1000000) + "ms per round");
+		System.out.println("streaming: " + (streamingTime / rounds / 1000000) + "ms per round");
+		System.out.println("differences: " + differences);
+	}
+
+	/**
+	 * The former implementation of ClassUtilities.getPackageFromSource. Reads the
+	 * whole file and strips the comments with regular expressions.
+	 */
+	private static String getPackageFromSourceRegex(File f) throws IOException
+	{
+		String s = new String(FileUtilities.readFile(f));
+
+		// cut all /* ... */ comments
+		Matcher mComments1 = pComment1.matcher(s);
+		s = mComments1.replaceAll("");
+
+		// cut all // ... comments
+		Matcher mComments2 = pComment2.matcher(s);
+		s = mComments2.replaceAll("");
+
+		// cut after the first opening brace
+		int braceIndex = s.indexOf('{');
+		if(braceIndex > -1) s = s.substring(0, braceIndex);
+
+		// now, finally, check for the package
+		Matcher m = pPackage.matcher(s);
+		return (m.find()) ? m.group(1).replaceAll("\\s", "") : null;
+	}
+
+	private static void collectSources(File dir, List<File> files)
+	{
+		File[] fa = dir.listFiles();
+		if(fa == null) return;
+
+		for(File f : fa)
+		{
+			if(f.isDirectory()) collectSources(f, files);
+			else if(f.getName().endsWith(".java")) files.add(f);
+		}
+	}
+}
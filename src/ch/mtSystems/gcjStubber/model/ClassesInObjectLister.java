@@ -19,10 +19,7 @@
 
 package ch.mtSystems.gcjStubber.model;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -30,6 +27,9 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import ch.mtSystems.jnc.model.utilities.IProcessOutputListener;
+import ch.mtSystems.jnc.model.utilities.ProcessEngine;
+
 
 /**
  * ClassesInObjectLister takes an object (*.o) created from gcc/gcj and
@@ -41,7 +41,6 @@ public class ClassesInObjectLister
 
 
 	private File cmdNm;
-	private Exception ex = null;
 	private Set<String> classesInObject = new LinkedHashSet<String>();
 	private List<String> errorList = new LinkedList<String>();
 
@@ -67,55 +66,29 @@ public class ClassesInObjectLister
 	{
 		classesInObject.clear();
 
-		Process p = Runtime.getRuntime().exec(new String[] {
+		String[] cmd =
+			{
 				cmdNm.toString(),
 				"--defined-only",
 				"--demangle=java",
 				fObject.toString()
-			});
-
-		Thread t1 = check(p.getInputStream(), true);
-		Thread t2 = check(p.getErrorStream(), false);
-		p.waitFor();
-		t1.join();
-		t2.join();
-
-		if(ex != null) throw ex;
-		return classesInObject;
-	}
+			};
 
-
-	// --------------- private methods ---------------
-
-	private Thread check(final InputStream inputStream, final boolean parse)
-	{
-		Thread t = new Thread()
-		{
-			public void run()
+		ProcessEngine.getProcessEngine().run(cmd, null, null, 0, new IProcessOutputListener()
 			{
-				try
+				public void lineRead(String line, boolean isError)
 				{
-					BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-					for(String s = br.readLine(); s != null; s = br.readLine())
+					if(isError)
+					{
+						errorList.add(line);
+					} else
 					{
-						if(parse)
-						{
-							Matcher m = pattern.matcher(s);
-							if(m.find()) classesInObject.add(m.group(1));
-						} else
-						{
-							errorList.add(s);
-						}
+						Matcher m = pattern.matcher(line);
+						if(m.find()) classesInObject.add(m.group(1));
 					}
-					br.close();
-				} catch(Exception ex)
-				{
-					ClassesInObjectLister.this.ex = ex;
 				}
-			}
-		};
+			});
 
-		t.start();
-		return t;
+		return classesInObject;
 	}
 }
@@ -19,13 +19,13 @@
 
 package ch.mtSystems.gcjStubber.model;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.LinkedList;
 import java.util.List;
 
+import ch.mtSystems.jnc.model.utilities.IProcessOutputListener;
+import ch.mtSystems.jnc.model.utilities.ProcessEngine;
+
 
 /**
  * CommandExecuter executes commands and gives convenient access
@@ -36,7 +36,6 @@ public class CommandExecutor
 	private String[] cmd;
 	private File workingDir;
 	
-	private Exception ex;
 	private List<String> outputList = new LinkedList<String>();
 	private List<String> errorList = new LinkedList<String>();
 
@@ -72,14 +71,14 @@ public class CommandExecutor
 	 */
 	public void execute() throws Exception
 	{
-		Process p = Runtime.getRuntime().exec(cmd, null, workingDir);
-		Thread t2 = log(p.getInputStream(), outputList);
-		Thread t1 = log(p.getErrorStream(), errorList);
-		p.waitFor();
-		t1.join();
-		t2.join();
-
-		if(ex != null) throw ex;
+		ProcessEngine.getProcessEngine().run(cmd, workingDir, null, 0, new IProcessOutputListener()
+			{
+				public void lineRead(String line, boolean isError)
+				{
+					if(isError) errorList.add(line);
+					else        outputList.add(line);
+				}
+			});
 	}
 
 	/**
@@ -99,29 +98,4 @@ public class CommandExecutor
 	{
 		return errorList.toArray(new String[0]);
 	}
-
-
-	// --------------- private methods ---------------
-
-	private Thread log(final InputStream inputStream, final List<String> saveList) throws Exception
-	{
-		Thread t = new Thread()
-		{
-			public void run()
-			{
-				try
-				{
-					BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-					for(String s = br.readLine(); s != null; s = br.readLine()) saveList.add(s);
-					br.close();
-				} catch(Exception ex)
-				{
-					CommandExecutor.this.ex = ex;
-				}
-			}
-		};
-
-		t.start();
-		return t;
-	}
 }
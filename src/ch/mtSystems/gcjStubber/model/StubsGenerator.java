@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -33,6 +34,7 @@ import ch.mtSystems.gcjStubber.model.stubCreator.FullPublicInterfaceStubCreator;
 import ch.mtSystems.gcjStubber.model.stubCreator.MinimalStubCreator;
 import ch.mtSystems.gcjStubber.model.stubCreator.MinimalWithInheritanceStubCreator;
 import ch.mtSystems.gcjStubber.model.stubCreator.StubCreator;
+import ch.mtSystems.jnc.model.utilities.FileUtilities;
 
 
 /**
@@ -44,7 +46,7 @@ public class StubsGenerator
 	private List<StubsGeneratorListener> listeners = new LinkedList<StubsGeneratorListener>(); 
 	
 	private boolean stop = false;
-	private File gcjDir, stubsDir;
+	private File gcjDir, stubsDir, scratchDir, tmpDir;
 	private String[] compilationArguments;
 
 	private File helloWorldDotJava, helloWorldDotExe;
@@ -75,6 +77,16 @@ public class StubsGenerator
 		listeners.remove(listener);
 	}
 
+	/**
+	 * Sets where the temporary files of the StubCreators are placed.
+	 * 
+	 * @param scratchDir The parent directory or null for the stubs directory.
+	 */
+	public void setScratchDir(File scratchDir)
+	{
+		this.scratchDir = scratchDir;
+	}
+
 	/**
 	 * Tries to create stubs for all objects in libgcj.a (from gcjDir).
 	 * Informs about the progress through StubsGeneratorListeners.
@@ -91,6 +103,7 @@ public class StubsGenerator
 
 		helloWorldDotJava = new File(stubsDir, "HelloWorld.java");
 		helloWorldDotExe = new File(stubsDir, "HelloWorld.exe");
+		tmpDir = null;
 
 		for(StubsGeneratorListener l : listeners) l.started();
 		boolean restoreLibgcjDotSpec = false;
@@ -121,6 +134,10 @@ public class StubsGenerator
 			log("Compile HelloWorld (for statistics)... ");
 			if(!compileHelloWorld()) return;
 			log("Ok\n");
+
+			log("Creating the directory for temporary files... ");
+			if(!createTmpDir()) return;
+			log("Ok\n");
 			
 			// create all stubs
 			File[] dirContent = stubsDir.listFiles(new ObjectFileFilter());
@@ -142,6 +159,8 @@ public class StubsGenerator
 				log(updateLibgcjDotSpec(false) ? "Ok\n" : "Failed!\n");
 			}
 
+			if(tmpDir != null && scratchDir != null) FileUtilities.deleteDirAsync(tmpDir);
+
 			for(StubsGeneratorListener l : listeners) l.done();
 			stop = false;
 		}
@@ -252,6 +271,31 @@ public class StubsGenerator
 		return true;
 	}
 	
+	/**
+	 * Creates the directory for the files of the StubCreators. It's placed in the
+	 * scratch directory if there is one, in the stubs directory otherwise.
+	 * 
+	 * @return true if it's ok. false otherwise.
+	 */
+	private boolean createTmpDir()
+	{
+		if(scratchDir == null)
+		{
+			tmpDir = new File(stubsDir, "tmp");
+			return true;
+		}
+
+		try
+		{
+			tmpDir = FileUtilities.createTempDir("JNCTemp", ".stubs", scratchDir);
+			return true;
+		} catch(IOException ex)
+		{
+			log("Failed:\n   " + ex.getMessage() + "\n");
+			return false;
+		}
+	}
+	
 	/**
 	 * Extracts libgcj.a into the stubs directory.
 	 * 
@@ -513,15 +557,15 @@ public class StubsGenerator
 					if(i == 0)
 					{
 						stubCreator = new MinimalStubCreator(missingClasses, stubJar,
-								stubObject, cmdGcj, new File(stubsDir, "tmp"), libgcjDotJar, classesInObject);
+								stubObject, cmdGcj, tmpDir, libgcjDotJar, classesInObject);
 					} else if(i == 1)
 					{
 						stubCreator = new MinimalWithInheritanceStubCreator(missingClasses,
-								stubJar, stubObject, cmdGcj, new File(stubsDir, "tmp"), libgcjDotJar, classesInObject);
+								stubJar, stubObject, cmdGcj, tmpDir, libgcjDotJar, classesInObject);
 					} else if(i == 2)
 					{
 						stubCreator = new FullPublicInterfaceStubCreator(missingClasses,
-								stubJar, stubObject, cmdGcj, new File(stubsDir, "tmp"), libgcjDotJar, classesInObject);
+								stubJar, stubObject, cmdGcj, tmpDir, libgcjDotJar, classesInObject);
 					} else
 					{
 						throw new Exception("Can't be here?!");
@@ -34,6 +34,7 @@ import ch.mtSystems.gcjStubber.model.StubsGenerator;
 import ch.mtSystems.gcjStubber.model.StubsGeneratorListener;
 import ch.mtSystems.gcjStubber.model.timer.TickListener;
 import ch.mtSystems.gcjStubber.model.timer.Timer;
+import ch.mtSystems.jnc.model.utilities.SettingsMemory;
 import ch.mtSystems.jnc.view.utilities.LayoutUtilities;
 
 
@@ -140,6 +141,7 @@ public class GcjStubber implements SelectionListener, TickListener, StubsGenerat
 			{
 				public void run()
 				{
+					StubsGenerator.getStubsGenerator().setScratchDir(SettingsMemory.getSettingsMemory().getScratchDir());
 					StubsGenerator.getStubsGenerator().createStubs(gcjDir, stubsDir, args);
 				}
 			}.start();
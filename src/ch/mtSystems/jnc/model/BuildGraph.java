@@ -0,0 +1,408 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import ch.mtSystems.jnc.model.utilities.FileUtilities;
+import ch.mtSystems.jnc.model.utilities.HashUtilities;
+
+
+/**
+ * BuildGraph runs the steps of a compilation (jars, icon, link, packing...) as
+ * soon as the steps they depend on are done. Independent steps, like the jars
+ * or the two targets, run concurrently.
+ * 
+ * A step with a key is skipped if neither its key (including its input files)
+ * nor its outputs changed since the last successful run. This is recorded in a
+ * stamp file per step. The stamps are written when the whole graph succeeded,
+ * so a step that modifies the output of another (packing) doesn't invalidate it.
+ * 
+ * After running, the critical path tells which chain of steps determined the
+ * total duration.
+ */
+public class BuildGraph
+{
+	private ExecutorService executor;
+	private CompilationTimer timer;
+	private File stampDir;
+
+	private List<Step> steps = new ArrayList<Step>();
+	private List<Step> criticalPath = new LinkedList<Step>();
+
+
+	/**
+	 * @param executor Runs the steps.
+	 * @param timer Gets a "step" phase per step.
+	 * @param stampDir Where the stamps are kept. Null if steps mustn't be skipped.
+	 */
+	public BuildGraph(ExecutorService executor, CompilationTimer timer, File stampDir)
+	{
+		this.executor = executor;
+		this.timer = timer;
+		this.stampDir = stampDir;
+	}
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Adds a step. Its dependencies have to be added before.
+	 * 
+	 * @return The added step.
+	 */
+	public Step add(Step step)
+	{
+		for(Step dependency : step.dependencies)
+		{
+			if(!steps.contains(dependency)) throw new IllegalArgumentException(dependency + " isn't part of the graph");
+		}
+
+		steps.add(step);
+		return step;
+	}
+
+	/**
+	 * Runs all steps. After a failed step, no more steps are started. The running
+	 * ones are waited for.
+	 * 
+	 * @return If all steps succeeded.
+	 * @throws Exception The first exception thrown by a step.
+	 */
+	public boolean run() throws Exception
+	{
+		CompletionService<Step> completionService = new ExecutorCompletionService<Step>(executor);
+		int running = 0;
+		for(Step step : steps)
+		{
+			step.pending = step.dependencies.size();
+			if(step.pending > 0) continue;
+
+			submit(completionService, step);
+			running++;
+		}
+
+		boolean success = true;
+		Exception exception = null;
+		while(running > 0)
+		{
+			Future<Step> future = completionService.take();
+			running--;
+
+			Step step;
+			try
+			{
+				step = future.get();
+			} catch(ExecutionException ex)
+			{
+				success = false;
+				if(exception == null)
+				{
+					Throwable cause = ex.getCause();
+					exception = (cause instanceof Exception) ? (Exception)cause : ex;
+				}
+				continue;
+			}
+
+			if(!step.succeeded) success = false;
+			if(!success) continue;
+
+			for(Step dependent : step.dependents)
+			{
+				if(--dependent.pending > 0) continue;
+
+				submit(completionService, dependent);
+				running++;
+			}
+		}
+
+		computeCriticalPath();
+		if(exception != null) throw exception;
+		if(!success) return false;
+
+		writeStamps();
+		return true;
+	}
+
+	/**
+	 * Returns the chain of steps, each one waiting for the previous one, that
+	 * ended last. Shortening any other step doesn't make the compilation faster.
+	 */
+	public List<Step> getCriticalPath()
+	{
+		return criticalPath;
+	}
+
+	/**
+	 * Returns how many steps have been skipped since they were up to date.
+	 */
+	public int getSkippedSteps()
+	{
+		int count = 0;
+		for(Step step : steps)
+		{
+			if(step.skipped) count++;
+		}
+		return count;
+	}
+
+	public int getStepCount()
+	{
+		return steps.size();
+	}
+
+
+	// --------------- private methods ---------------
+
+	private void submit(CompletionService<Step> completionService, final Step step)
+	{
+		completionService.submit(new Callable<Step>()
+			{
+				public Step call() throws Exception
+				{
+					runStep(step);
+					return step;
+				}
+			});
+	}
+
+	private void runStep(Step step) throws Exception
+	{
+		step.phase = timer.start(step.target, "step", step.category + " " + step.name);
+		try
+		{
+			String key = step.getKey();
+			if(key != null && stampDir != null)
+			{
+				StringBuffer sb = new StringBuffer(key);
+				for(File f : step.inputs) sb.append('\n').append(getSignature(f));
+				step.stampKey = HashUtilities.hashString(sb.toString());
+
+				if(isUpToDate(step))
+				{
+					step.skipped = true;
+					step.succeeded = true;
+					step.phase.addDetail("skipped", "true");
+					return;
+				}
+			}
+
+			step.succeeded = step.execute();
+		} finally
+		{
+			step.phase.end();
+		}
+	}
+
+	private boolean isUpToDate(Step step) throws IOException
+	{
+		File stampFile = getStampFile(step);
+		if(!stampFile.exists() || step.outputs.isEmpty()) return false;
+
+		List<String> lines = new LinkedList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(stampFile));
+		for(String line = br.readLine(); line != null; line = br.readLine()) lines.add(line);
+		br.close();
+
+		return lines.equals(getStamp(step));
+	}
+
+	private void writeStamps() throws IOException
+	{
+		for(Step step : steps)
+		{
+			if(step.stampKey == null || step.outputs.isEmpty()) continue;
+			if(!stampDir.exists() && !stampDir.mkdirs() && !stampDir.exists()) throw new IOException("Unable to create \"" + stampDir + "\"");
+
+			File stampFile = getStampFile(step);
+			File tmpFile = File.createTempFile(stampFile.getName(), ".tmp", stampDir);
+			FileWriter fw = new FileWriter(tmpFile);
+			for(String line : getStamp(step)) fw.write(line + "\n");
+			fw.flush();
+			fw.close();
+			FileUtilities.installFile(tmpFile, stampFile, false);
+		}
+	}
+
+	private List<String> getStamp(Step step)
+	{
+		List<String> lines = new LinkedList<String>();
+		lines.add("key=" + step.stampKey);
+		for(File f : step.outputs) lines.add("output=" + getSignature(f));
+		return lines;
+	}
+
+	private File getStampFile(Step step)
+	{
+		return new File(stampDir, HashUtilities.hashString(step.target + "|" + step.category + "|" + step.name).substring(0, 16));
+	}
+
+	private static String getSignature(File f)
+	{
+		return (f.exists()) ? f + "|" + f.length() + "|" + f.lastModified() : f + "|missing";
+	}
+
+	/**
+	 * Follows the dependencies that finished last, starting at the step that finished last.
+	 */
+	private void computeCriticalPath()
+	{
+		criticalPath.clear();
+
+		Step step = null;
+		for(Step s : steps)
+		{
+			if(s.phase != null && (step == null || getEnd(s) > getEnd(step))) step = s;
+		}
+
+		while(step != null)
+		{
+			criticalPath.add(step);
+
+			Step predecessor = null;
+			for(Step dependency : step.dependencies)
+			{
+				if(predecessor == null || getEnd(dependency) > getEnd(predecessor)) predecessor = dependency;
+			}
+			step = predecessor;
+		}
+
+		Collections.reverse(criticalPath);
+
+		List<CompilationTimer.Phase> phases = new LinkedList<CompilationTimer.Phase>();
+		for(Step s : criticalPath) phases.add(s.phase);
+		timer.setCriticalPath(phases);
+	}
+
+	private static long getEnd(Step step)
+	{
+		return step.phase.getStart() + step.phase.getDuration();
+	}
+
+
+	// --------------- inner classes ---------------
+
+	/**
+	 * A step of the compilation. The inputs and outputs only need to be declared
+	 * if the step can be skipped (see getKey).
+	 */
+	public static abstract class Step
+	{
+		private final String target, category, name;
+		private List<Step> dependencies = new LinkedList<Step>();
+		private List<Step> dependents = new LinkedList<Step>();
+		private List<File> inputs = new LinkedList<File>();
+		private List<File> outputs = new LinkedList<File>();
+
+		private int pending;
+		private CompilationTimer.Phase phase;
+		private String stampKey;
+		private boolean skipped, succeeded;
+
+		/**
+		 * @param target "win", "lin" or null if the step is shared by all targets.
+		 * @param category What is done, e.g. "jar" or "link".
+		 * @param name What it's done with, e.g. the name of the jar.
+		 */
+		public Step(String target, String category, String name)
+		{
+			this.target = target;
+			this.category = category;
+			this.name = name;
+		}
+
+		/**
+		 * The step is only started when the given step succeeded. Null is ignored.
+		 */
+		public Step dependsOn(Step step)
+		{
+			if(step == null) return this;
+
+			dependencies.add(step);
+			step.dependents.add(this);
+			return this;
+		}
+
+		/**
+		 * A file whose size and modification date are part of the key.
+		 */
+		public void addInput(File f)
+		{
+			inputs.add(f);
+		}
+
+		/**
+		 * A file that is created by the step. The step is run again if it has been
+		 * deleted or modified.
+		 */
+		public void addOutput(File f)
+		{
+			outputs.add(f);
+		}
+
+		/**
+		 * Returns what the result of the step depends on, besides the input files.
+		 * Called when the dependencies are done, so their results can be used and
+		 * inputs and outputs that depend on them can still be added.
+		 * 
+		 * @return The key or null if the step always has to be run.
+		 */
+		protected String getKey() throws Exception
+		{
+			return null;
+		}
+
+		/**
+		 * Does the work.
+		 * 
+		 * @return If it succeeded.
+		 */
+		protected abstract boolean execute() throws Exception;
+
+		public String getTarget() { return target; }
+		public String getCategory() { return category; }
+		public String getName() { return name; }
+		public boolean isSkipped() { return skipped; }
+
+		/**
+		 * In microseconds, 0 if the step didn't run.
+		 */
+		public long getDuration() { return (phase == null) ? 0 : phase.getDuration(); }
+
+		public String toString()
+		{
+			return ((target == null) ? "" : "[" + target + "] ") + category + " " + name;
+		}
+	}
+}
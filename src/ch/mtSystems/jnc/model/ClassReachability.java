@@ -0,0 +1,271 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.bcel.classfile.ClassFormatException;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantUtf8;
+import org.apache.bcel.classfile.JavaClass;
+
+import ch.mtSystems.jnc.model.utilities.FileUtilities;
+
+
+/**
+ * ClassReachability computes which classes of the jars are transitively
+ * reachable from a set of roots. References are taken from the constant pool
+ * (class references, descriptors and string constants that name a known class,
+ * as they're used by Class.forName). The roots are the added classes, all
+ * classes of jars that are kept completely, the providers listed in
+ * META-INF/services and everything the project sources refer to. For .java
+ * sources, every jar class whose simple name appears as identifier is a root.
+ */
+public class ClassReachability
+{
+	private static final Pattern pDescriptor = Pattern.compile("L([^;<>()\\[]+)[;<]");
+	private static final Pattern pIdentifier = Pattern.compile("[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*");
+
+	private Map<String, ClassNode> hmClasses = new HashMap<String, ClassNode>();
+	private Set<String> hsRoots = new HashSet<String>();
+	private Set<String> hsRootPackages = new HashSet<String>();
+	private Set<String> hsSourceIdentifiers = new HashSet<String>();
+	private Set<String> hsReachable;
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Adds all classes of the jar to the analysis.
+	 * 
+	 * @param keepAll If all classes of the jar are roots (e.g. because it's compiled completely).
+	 */
+	public void addJar(File jarFile, boolean keepAll) throws IOException
+	{
+		ZipFile zipFile = new ZipFile(jarFile);
+
+		try
+		{
+			for(Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); )
+			{
+				ZipEntry zipEntry = e.nextElement();
+				if(zipEntry.isDirectory()) continue;
+
+				String entryName = zipEntry.getName();
+				if(entryName.startsWith("META-INF/services/"))
+				{
+					addServiceProviders(zipFile.getInputStream(zipEntry));
+					continue;
+				}
+				if(!entryName.endsWith(".class")) continue;
+
+				String className = entryName.substring(0, entryName.length() - 6).replace('/', '.');
+				ClassNode node = new ClassNode(jarFile, entryName);
+				hmClasses.put(className, node);
+
+				InputStream in = zipFile.getInputStream(zipEntry);
+				try
+				{
+					addReferences(new ClassParser(in, entryName).parse(), node.references);
+				} catch(ClassFormatException ex)
+				{
+					hsRoots.add(className); // don't know what it refers to
+				} finally
+				{
+					in.close();
+				}
+
+				if(keepAll) hsRoots.add(className);
+			}
+		} finally
+		{
+			zipFile.close();
+		}
+	}
+
+	/**
+	 * Adds the references of a project source (.java or .class) as roots.
+	 */
+	public void addSource(File f) throws IOException
+	{
+		if(f.getName().endsWith(".class"))
+		{
+			InputStream in = new FileInputStream(f);
+			try
+			{
+				addReferences(new ClassParser(in, f.getName()).parse(), hsRoots);
+			} finally
+			{
+				in.close();
+			}
+		} else
+		{
+			// without resolving the imports, any class with a used name might be meant
+			Matcher m = pIdentifier.matcher(new String(FileUtilities.readFile(f)));
+			while(m.find()) hsSourceIdentifiers.add(m.group());
+		}
+	}
+
+	/**
+	 * Adds a root: a fully qualified class name or a package followed by ".*",
+	 * which includes all classes of the package and its sub packages.
+	 */
+	public void addRoot(String root)
+	{
+		if(root.endsWith(".*")) hsRootPackages.add(root.substring(0, root.length() - 1));
+		else hsRoots.add(root);
+	}
+
+	/**
+	 * Walks the references from the roots. Has to be called after everything has been added.
+	 */
+	public void compute()
+	{
+		LinkedList<String> llQueue = new LinkedList<String>(hsRoots);
+		for(String className : hmClasses.keySet())
+		{
+			if(hsSourceIdentifiers.contains(getSimpleName(className))) llQueue.add(className);
+			for(String rootPackage : hsRootPackages)
+			{
+				if(className.startsWith(rootPackage)) llQueue.add(className);
+			}
+		}
+
+		hsReachable = new HashSet<String>();
+		while(!llQueue.isEmpty())
+		{
+			String className = llQueue.removeFirst();
+			ClassNode node = hmClasses.get(className);
+			if(node == null || !hsReachable.add(className)) continue;
+
+			llQueue.addAll(node.references);
+
+			// an inner class can't exist without its outer class
+			int index = className.lastIndexOf('$');
+			if(index > 0) llQueue.add(className.substring(0, index));
+		}
+	}
+
+	/**
+	 * Returns the entry names (e.g. org/foo/Bar.class) of the reachable classes in the jar.
+	 */
+	public Set<String> getReachableEntries(File jarFile)
+	{
+		Set<String> hsEntries = new HashSet<String>();
+		for(String className : hsReachable)
+		{
+			ClassNode node = hmClasses.get(className);
+			if(node.jarFile.equals(jarFile)) hsEntries.add(node.entryName);
+		}
+		return hsEntries;
+	}
+
+	/**
+	 * Returns the number of classes in the jar.
+	 */
+	public int getClassCount(File jarFile)
+	{
+		int count = 0;
+		for(ClassNode node : hmClasses.values())
+		{
+			if(node.jarFile.equals(jarFile)) count++;
+		}
+		return count;
+	}
+
+
+	// --------------- private methods ---------------
+
+	/**
+	 * Adds every string of the constant pool that might name a class. Names of
+	 * classes that aren't part of the analysis are simply ignored later on.
+	 */
+	private void addReferences(JavaClass javaClass, Set<String> hsReferences)
+	{
+		for(Constant constant : javaClass.getConstantPool().getConstantPool())
+		{
+			if(!(constant instanceof ConstantUtf8)) continue;
+
+			String s = ((ConstantUtf8)constant).getBytes();
+			hsReferences.add(s.replace('/', '.')); // class references and Class.forName("...")
+
+			if(s.indexOf(';') < 0) continue;
+			Matcher m = pDescriptor.matcher(s);
+			while(m.find()) hsReferences.add(m.group(1).replace('/', '.'));
+		}
+	}
+
+	private void addServiceProviders(InputStream in) throws IOException
+	{
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+		try
+		{
+			for(String line = br.readLine(); line != null; line = br.readLine())
+			{
+				int index = line.indexOf('#');
+				if(index > -1) line = line.substring(0, index);
+				line = line.trim();
+				if(line.length() > 0) hsRoots.add(line);
+			}
+		} finally
+		{
+			br.close();
+		}
+	}
+
+	private static String getSimpleName(String className)
+	{
+		int index = Math.max(className.lastIndexOf('.'), className.lastIndexOf('$'));
+		return className.substring(index + 1);
+	}
+
+
+	// --------------- inner classes ---------------
+
+	private static class ClassNode
+	{
+		private File jarFile;
+		private String entryName;
+		private Set<String> references = new HashSet<String>();
+
+		public ClassNode(File jarFile, String entryName)
+		{
+			this.jarFile = jarFile;
+			this.entryName = entryName;
+		}
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * CompilationTimer records how long the phases of a compilation take (jars, entries,
+ * resources, icon, link, packing...). They can be written as JSON report and as trace
+ * in the Chrome trace event format (chrome://tracing, Perfetto).
+ * 
+ * Usage:
+ * Phase phase = timer.start("lin", "jar", "foo.jar");
+ * try { ... } finally { phase.end(); }
+ */
+public class CompilationTimer
+{
+	private final long startTime = System.nanoTime();
+	private ICompilationTimingLogger logger;
+
+	private List<Phase> phases = new LinkedList<Phase>();
+	private Map<Thread, Integer> hmThreadIds = new HashMap<Thread, Integer>();
+	private List<String> threadNames = new ArrayList<String>();
+	private List<Phase> criticalPath = new ArrayList<Phase>();
+
+
+	/**
+	 * @param logger Informed about every finished phase. Can be null.
+	 */
+	public CompilationTimer(ICompilationTimingLogger logger)
+	{
+		this.logger = logger;
+	}
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Starts a phase in the current thread.
+	 * 
+	 * @param target "win", "lin" or null if the phase is shared by all targets.
+	 * @param category What is done, e.g. "jar", "entry" or "link".
+	 * @param name What it's done with, e.g. the name of the jar.
+	 */
+	public Phase start(String target, String category, String name)
+	{
+		return new Phase(target, category, name, getThreadId(), (System.nanoTime() - startTime) / 1000);
+	}
+
+	/**
+	 * Returns the finished phases sorted by their start.
+	 */
+	public synchronized List<Phase> getPhases()
+	{
+		List<Phase> list = new ArrayList<Phase>(phases);
+		Collections.sort(list, new Comparator<Phase>()
+			{
+				public int compare(Phase p1, Phase p2)
+				{
+					return (p1.start < p2.start) ? -1 : ((p1.start == p2.start) ? 0 : 1);
+				}
+			});
+		return list;
+	}
+
+	/**
+	 * Sets the chain of phases that determined the total duration, see
+	 * BuildGraph.getCriticalPath. It's part of the report.
+	 */
+	public synchronized void setCriticalPath(List<Phase> phases)
+	{
+		criticalPath = new ArrayList<Phase>(phases);
+	}
+
+	/**
+	 * Writes all phases and the summed up durations per category. Since phases
+	 * run concurrently and are nested (entries in jars), the sums can exceed the
+	 * total duration.
+	 */
+	public void writeReport(File reportFile) throws IOException
+	{
+		List<Phase> list = getPhases();
+
+		Map<String, long[]> hmCategories = new TreeMap<String, long[]>(); // category -> count, duration
+		for(Phase phase : list)
+		{
+			long[] la = hmCategories.get(phase.category);
+			if(la == null) hmCategories.put(phase.category, la = new long[2]);
+			la[0]++;
+			la[1] += phase.duration;
+		}
+
+		StringBuffer sb = new StringBuffer("{\n");
+		sb.append("\t\"total_us\": " + ((System.nanoTime() - startTime) / 1000) + ",\n");
+
+		sb.append("\t\"categories\": {");
+		boolean first = true;
+		for(String category : hmCategories.keySet())
+		{
+			long[] la = hmCategories.get(category);
+			sb.append((first) ? "\n" : ",\n");
+			sb.append("\t\t" + quote(category) + ": { \"count\": " + la[0] + ", \"duration_us\": " + la[1] + " }");
+			first = false;
+		}
+		sb.append("\n\t},\n");
+
+		List<Phase> path;
+		synchronized(this)
+		{
+			path = criticalPath;
+		}
+		long pathDuration = 0;
+		for(Phase phase : path) pathDuration += phase.duration;
+
+		sb.append("\t\"critical_path\": { \"duration_us\": " + pathDuration + ", \"phases\": [");
+		first = true;
+		for(Phase phase : path)
+		{
+			sb.append((first) ? "\n" : ",\n");
+			sb.append("\t\t{ \"target\": " + quote(phase.target) + ", \"name\": " + quote(phase.name) +
+					", \"start_us\": " + phase.start + ", \"duration_us\": " + phase.duration + " }");
+			first = false;
+		}
+		sb.append((path.isEmpty()) ? "] },\n" : "\n\t] },\n");
+
+		sb.append("\t\"phases\": [");
+		first = true;
+		for(Phase phase : list)
+		{
+			sb.append((first) ? "\n" : ",\n");
+			sb.append("\t\t{ \"target\": " + quote(phase.target) + ", \"category\": " + quote(phase.category) +
+					", \"name\": " + quote(phase.name) + ", \"thread\": " + phase.thread +
+					", \"start_us\": " + phase.start + ", \"duration_us\": " + phase.duration +
+					((phase.hmDetails.isEmpty()) ? "" : ", \"details\": " + toJson(phase.hmDetails)) + " }");
+			first = false;
+		}
+		sb.append("\n\t]\n}\n");
+
+		write(reportFile, sb.toString());
+	}
+
+	/**
+	 * Writes all phases as complete events of the trace event format. Every thread
+	 * that did some work gets its own row.
+	 */
+	public void writeTrace(File traceFile) throws IOException
+	{
+		List<Phase> list = getPhases();
+		List<String> names;
+		synchronized(this)
+		{
+			names = new ArrayList<String>(threadNames);
+		}
+
+		StringBuffer sb = new StringBuffer("{\n\t\"displayTimeUnit\": \"ms\",\n\t\"traceEvents\": [");
+		boolean first = true;
+		for(int i=0; i<names.size(); i++)
+		{
+			sb.append((first) ? "\n" : ",\n");
+			sb.append("\t\t{ \"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": " + i +
+					", \"args\": { \"name\": " + quote(names.get(i)) + " } }");
+			first = false;
+		}
+		for(Phase phase : list)
+		{
+			String name = (phase.target == null) ? phase.name : "[" + phase.target + "] " + phase.name;
+			Map<String, Object> hmArgs = new LinkedHashMap<String, Object>();
+			hmArgs.put("target", phase.target);
+			hmArgs.putAll(phase.hmDetails);
+
+			sb.append((first) ? "\n" : ",\n");
+			sb.append("\t\t{ \"name\": " + quote(name) + ", \"cat\": " + quote(phase.category) +
+					", \"ph\": \"X\", \"pid\": 1, \"tid\": " + phase.thread + ", \"ts\": " + phase.start +
+					", \"dur\": " + phase.duration + ", \"args\": " + toJson(hmArgs) + " }");
+			first = false;
+		}
+		sb.append("\n\t]\n}\n");
+
+		write(traceFile, sb.toString());
+	}
+
+
+	// --------------- private methods ---------------
+
+	private synchronized int getThreadId()
+	{
+		Thread thread = Thread.currentThread();
+		Integer id = hmThreadIds.get(thread);
+		if(id == null)
+		{
+			id = Integer.valueOf(threadNames.size());
+			hmThreadIds.put(thread, id);
+			threadNames.add(thread.getName());
+		}
+		return id.intValue();
+	}
+
+	private synchronized void addPhase(Phase phase)
+	{
+		phases.add(phase);
+	}
+
+	private static String toJson(Map<String, Object> hmValues)
+	{
+		StringBuffer sb = new StringBuffer("{ ");
+		for(String key : hmValues.keySet())
+		{
+			if(sb.length() > 2) sb.append(", ");
+			Object value = hmValues.get(key);
+			sb.append(quote(key) + ": " + ((value instanceof Number) ? value.toString() : quote((String)value)));
+		}
+		return sb.append(" }").toString();
+	}
+
+	private static String quote(String s)
+	{
+		if(s == null) return "null";
+
+		StringBuffer sb = new StringBuffer("\"");
+		for(int i=0; i<s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if(c == '"' || c == '\\') sb.append('\\').append(c);
+			else if(c < 0x20)         sb.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+			else                      sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	private static void write(File f, String s) throws IOException
+	{
+		File dir = f.getAbsoluteFile().getParentFile();
+		if(!dir.exists() && !dir.mkdirs() && !dir.exists()) throw new IOException("Unable to create \"" + dir + "\"");
+
+		FileWriter fw = new FileWriter(f);
+		fw.write(s);
+		fw.flush();
+		fw.close();
+	}
+
+
+	// --------------- inner classes ---------------
+
+	public class Phase
+	{
+		private final String target, category, name;
+		private final int thread;
+		private final long start;
+		private long duration;
+		private Map<String, Object> hmDetails = new LinkedHashMap<String, Object>();
+
+		private Phase(String target, String category, String name, int thread, long start)
+		{
+			this.target = target;
+			this.category = category;
+			this.name = name;
+			this.thread = thread;
+			this.start = start;
+		}
+
+		public void end()
+		{
+			duration = (System.nanoTime() - startTime) / 1000 - start;
+			addPhase(this);
+			if(logger != null) logger.phaseFinished(this);
+		}
+
+		/**
+		 * Adds something worth knowing about the phase (e.g. how many bytes packing saved)
+		 * to the report and the trace.
+		 * 
+		 * @param value A Number or a String.
+		 */
+		public void addDetail(String name, Object value)
+		{
+			hmDetails.put(name, (value instanceof Number) ? value : String.valueOf(value));
+		}
+
+		public Map<String, Object> getDetails() { return hmDetails; }
+
+		public String getTarget() { return target; }
+		public String getCategory() { return category; }
+		public String getName() { return name; }
+		public int getThread() { return thread; }
+
+		/**
+		 * Microseconds since the start of the compilation.
+		 */
+		public long getStart() { return start; }
+
+		/**
+		 * In microseconds.
+		 */
+		public long getDuration() { return duration; }
+	}
+}
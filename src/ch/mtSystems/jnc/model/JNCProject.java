@@ -31,6 +31,7 @@ import java.util.Set;
 import java.util.Vector;
 
 import ch.mtSystems.jnc.control.IAppControllerListener;
+import ch.mtSystems.jnc.model.utilities.ClassMetadataCache;
 
 
 public class JNCProject
@@ -51,6 +52,7 @@ public class JNCProject
 	private File windowsFile, linuxFile;
 	private boolean compileWindows = true, compileLinux = true;
 	private boolean omitStripping, omitPacking, disableOptimisation;
+	private int packingLevel; // 1 (fast) to 9, 0: best
 
 	// windows settings
 	private File iconFile;
@@ -61,9 +63,15 @@ public class JNCProject
 	private boolean showCommands;
 	private boolean excludeGui, excludeJce, addGnuRegex;
 	private boolean dontCacheJars;
+	private boolean incrementalCompilation;
+	private boolean pruneClasses;
+	private boolean sharedJars;
+	private File scratchDir;
+	private Vector<String> vExtraRoots = new Vector<String>();
 	
 	// compile settings
 	private boolean beepWhenDone;
+	private int compileThreads; // 0: one per available processor
 
 	// save file
 	private File saveFile;
@@ -242,6 +250,17 @@ public class JNCProject
 		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
 	}
 
+	/**
+	 * Returns the upx compression level: 1 (fast) to 9 or 0 for best (very slow).
+	 */
+	public int getPackingLevel() { return packingLevel; }
+
+	public void setPackingLevel(int packingLevel)
+	{
+		this.packingLevel = packingLevel;
+		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
+	}
+
 	public boolean getDisableOptimisation() { return disableOptimisation; }
 	
 	public void setDisableOptimisation(boolean disableOptimisation)
@@ -367,6 +386,86 @@ public class JNCProject
 		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
 	}
 	
+	public boolean getIncrementalCompilation()
+	{
+		return incrementalCompilation;
+	}
+
+	public void setIncrementalCompilation(boolean incrementalCompilation)
+	{
+		this.incrementalCompilation = incrementalCompilation;
+		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
+	}
+	
+	/**
+	 * Returns if only the classes of the (not completely compiled) jars are compiled
+	 * which are reachable from the main class, the project sources and the extra roots.
+	 */
+	public boolean getPruneClasses()
+	{
+		return pruneClasses;
+	}
+
+	public void setPruneClasses(boolean pruneClasses)
+	{
+		this.pruneClasses = pruneClasses;
+		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
+	}
+
+	/**
+	 * Returns if the jars are compiled into shared libraries which are loaded from the
+	 * "lib" directory next to the binary. Only supported for Linux, Windows binaries
+	 * are always linked statically.
+	 */
+	public boolean getSharedJars()
+	{
+		return sharedJars;
+	}
+
+	public void setSharedJars(boolean sharedJars)
+	{
+		this.sharedJars = sharedJars;
+		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
+	}
+
+	/**
+	 * Returns the directory for the intermediate files of this project.
+	 * 
+	 * @return The directory or null to use the one of the settings.
+	 */
+	public File getScratchDir()
+	{
+		return scratchDir;
+	}
+
+	public void setScratchDir(File scratchDir)
+	{
+		this.scratchDir = scratchDir;
+		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
+	}
+
+	/**
+	 * Returns the classes which are always kept when pruning unreachable classes
+	 * (e.g. because they're only loaded by reflection). An entry is either a fully
+	 * qualified class name or a package followed by ".*", which includes all classes
+	 * of the package and its sub packages.
+	 */
+	public String[] getExtraRoots()
+	{
+		return vExtraRoots.toArray(new String[0]);
+	}
+
+	public void setExtraRoots(String[] roots)
+	{
+		vExtraRoots.clear();
+		for(String root : roots)
+		{
+			root = root.trim();
+			if(root.length() > 0) vExtraRoots.add(root);
+		}
+		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
+	}
+	
 	public boolean getBeepWhenDone() { return beepWhenDone; }
 
 	public void setBeepWhenDone(boolean beep)
@@ -375,8 +474,33 @@ public class JNCProject
 		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
 	}
 
+	/**
+	 * Returns how many jar entries are compiled concurrently.
+	 * 
+	 * @return 0 (one per available processor) or the number of threads.
+	 */
+	public int getCompileThreads() { return compileThreads; }
+
+	public void setCompileThreads(int threads)
+	{
+		compileThreads = Math.max(0, threads);
+		for(int i=0; i<vListeners.size(); i++) vListeners.get(i).projectUpdated();
+	}
+
 	public File getSaveFile() { return saveFile; }
 
+	/**
+	 * Returns the directory where compilation results of this project can be
+	 * cached (next to the project file).
+	 * 
+	 * @return The directory (might not exist) or null if the project hasn't been saved yet.
+	 */
+	public File getCacheDir()
+	{
+		if(saveFile == null) return null;
+		return new File(saveFile.getAbsoluteFile().getParentFile(), saveFile.getName() + ".cache");
+	}
+
 	public void save(File f) throws IOException
 	{
 		saveFile = f;
@@ -400,6 +524,7 @@ public class JNCProject
 		fw.write("linuxFile=" + linuxFile + "\n");
 		fw.write("omitStripping=" + omitStripping + "\n");
 		fw.write("omitPacking=" + omitPacking + "\n");
+		fw.write("packingLevel=" + packingLevel + "\n");
 		fw.write("disableOptimisation=" + disableOptimisation + "\n");
 
 		// windows settings
@@ -417,8 +542,14 @@ public class JNCProject
 		fw.write("excludeJce=" + excludeJce + "\n");
 		fw.write("addGnuRegex=" + addGnuRegex + "\n");
 		fw.write("dontCacheJars=" + dontCacheJars + "\n");
+		fw.write("incrementalCompilation=" + incrementalCompilation + "\n");
+		fw.write("pruneClasses=" + pruneClasses + "\n");
+		for(String root : vExtraRoots) fw.write("extraRoot=" + root + "\n");
+		fw.write("sharedJars=" + sharedJars + "\n");
+		fw.write("scratchDir=" + scratchDir + "\n");
 
 		// compile settings
+		fw.write("compileThreads=" + compileThreads + "\n");
 		fw.write("beepWhenDone=" + beepWhenDone);
 
 		fw.flush();
@@ -465,6 +596,7 @@ public class JNCProject
 			else if(sa[0].equals("linuxFile"))           project.linuxFile = new File(sa[1]);
 			else if(sa[0].equals("omitStripping"))       project.omitStripping = sa[1].equals("true");
 			else if(sa[0].equals("omitPacking"))         project.omitPacking = sa[1].equals("true");
+			else if(sa[0].equals("packingLevel"))        project.packingLevel = Math.max(0, Math.min(9, Integer.parseInt(sa[1])));
 			else if(sa[0].equals("iconFile"))            project.iconFile = new File(sa[1]);
 			else if(sa[0].equals("useIcon"))             project.useIcon = sa[1].equals("true");
 			else if(sa[0].equals("hideConsole"))         project.hideConsole = sa[1].equals("true");
@@ -480,7 +612,13 @@ public class JNCProject
 			else if(sa[0].equals("excludeJce"))          project.excludeJce = sa[1].equals("true");
 			else if(sa[0].equals("addGnuRegex"))         project.addGnuRegex = sa[1].equals("true");
 			else if(sa[0].equals("dontCacheJars"))       project.dontCacheJars = sa[1].equals("true");
+			else if(sa[0].equals("incrementalCompilation")) project.incrementalCompilation = sa[1].equals("true");
+			else if(sa[0].equals("pruneClasses"))        project.pruneClasses = sa[1].equals("true");
+			else if(sa[0].equals("extraRoot"))           project.vExtraRoots.add(sa[1]);
+			else if(sa[0].equals("sharedJars"))          project.sharedJars = sa[1].equals("true");
+			else if(sa[0].equals("scratchDir"))          project.scratchDir = new File(sa[1]);
 			else if(sa[0].equals("beepWhenDone"))        project.beepWhenDone = sa[1].equals("true");
+			else if(sa[0].equals("compileThreads"))      project.compileThreads = Math.max(0, Integer.parseInt(sa[1]));
 			else if(sa[0].equals("disableOptimisation")) project.disableOptimisation = sa[1].equals("true");
 		}
 
@@ -492,6 +630,17 @@ public class JNCProject
 	public void removeProjectListener(IAppControllerListener acl) { vListeners.remove(acl); }
 
 
+	/**
+	 * Returns the cache for the packages and class names of the project inputs.
+	 * It's saved in the cache directory if the project has been saved.
+	 */
+	public ClassMetadataCache getMetadataCache()
+	{
+		File cacheDir = getCacheDir();
+		return ClassMetadataCache.getCache((cacheDir == null) ? null : new File(cacheDir, "metadata"));
+	}
+
+
 	// --------------- private methods ---------------
 
 	private void checkIfMainClassDeleted(File f)
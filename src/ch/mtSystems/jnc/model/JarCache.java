@@ -0,0 +1,344 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.bcel.classfile.ClassFormatException;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantUtf8;
+import org.apache.bcel.classfile.JavaClass;
+
+import ch.mtSystems.jnc.model.utilities.HashUtilities;
+
+
+/**
+ * JarCache manages the compiled jars (archives, objects or shared libraries) in
+ * the jar store. An entry is only valid for the exact jar content, flags and
+ * compiler it has been created with. All of this goes into the key that is part
+ * of the file name: foo.jar -> foo-lin-0123456789abcdef.jar.a
+ */
+public class JarCache
+{
+	private static final Pattern pDescriptor = Pattern.compile("L([^;<>()\\[]+)[;<]");
+	private static Map<String, String> hmJarHashes = Collections.synchronizedMap(new HashMap<String, String>());
+	private JarStore store;
+	private AtomicInteger hits = new AtomicInteger();
+	private AtomicInteger misses = new AtomicInteger();
+
+
+	public JarCache(JarStore store)
+	{
+		this.store = store;
+	}
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Returns the key for everything but the jar content. Objects of single
+	 * jar entries can be shared between all jars with the same configuration key.
+	 * 
+	 * @param os "win" or "lin".
+	 * @param complete Whether the jar is compiled completely (object) or into an archive.
+	 * @param flags All flags that are used to compile the jar.
+	 * @param classpath The jars on the classpath. Their content counts, not their path:
+	 *                  the compiled classes depend on the layout of the classes they use.
+	 * @param compilerIdentity Identifies the compiler (version and binary).
+	 */
+	public String getConfigurationKey(String os, boolean complete, List<String> flags, List<File> classpath,
+			String compilerIdentity) throws IOException
+	{
+		StringBuffer sb = new StringBuffer();
+		sb.append("os=").append(os).append('\n');
+		sb.append("complete=").append(complete).append('\n');
+		for(String flag : flags) sb.append("flag=").append(flag).append('\n');
+		for(File jar : classpath) sb.append("classpath=").append(jar.exists() ? getJarHash(jar) : "missing").append('\n');
+		sb.append("compiler=").append(compilerIdentity).append('\n');
+		return HashUtilities.hashString(sb.toString());
+	}
+
+	/**
+	 * Returns the key for a compiled jar.
+	 * 
+	 * @param jarFile The jar to compile.
+	 * @param configurationKey The key returned by getConfigurationKey.
+	 */
+	public String getKey(File jarFile, String configurationKey) throws IOException
+	{
+		return HashUtilities.hashString("jar=" + getJarHash(jarFile) + "\nconfiguration=" + configurationKey + "\n");
+	}
+
+	/**
+	 * Returns the cache file for the given jar and key. It doesn't need to exist.
+	 */
+	public File getCacheFile(File jarFile, String os, boolean complete, String key)
+	{
+		return new File(store.getDir(),
+				getBaseName(jarFile, os) + "-" + key.substring(0, 16) + ".jar" + (complete ? ".o" : ".a"));
+	}
+
+	/**
+	 * Returns the cache file for the shared library of the given jar and key. Since
+	 * the key is part of the name, it's also used as soname. It doesn't need to exist.
+	 */
+	public File getSharedCacheFile(File jarFile, String os, String key)
+	{
+		return new File(store.getDir(), getBaseName(jarFile, os) + "-" + key.substring(0, 16) + ".jar.so");
+	}
+
+	/**
+	 * Returns the directory that keeps the objects of the single jar entries.
+	 * They are reused if the jar changes, so only changed entries need to be
+	 * recompiled. The directory doesn't need to exist.
+	 */
+	public File getEntryCacheDir(File jarFile, String os, String configurationKey)
+	{
+		return new File(store.getDir(),
+				getBaseName(jarFile, os) + "-" + configurationKey.substring(0, 16) + ".jar.entries");
+	}
+
+	/**
+	 * Returns the object file names of the classes of a jar in the entry cache directory.
+	 * With the C++ ABI, the object of a class also depends on the layout of the classes
+	 * it uses. So the name is made of the entry, the classes of the jar it refers to and
+	 * the super classes and interfaces of all of them (by CRC and size). A class that
+	 * can't be parsed might extend anything, so everything referring to it depends on
+	 * the whole jar. Changes of other jars are part of the configuration key.
+	 * 
+	 * @return Entry name (org/foo/Bar.class) -> object name. Entries whose CRC or size
+	 *         isn't known can't be cached and are missing.
+	 */
+	public static Map<String, String> getEntryObjectNames(ZipFile zipFile) throws IOException
+	{
+		Map<String, ZipEntry> hmEntries = new HashMap<String, ZipEntry>(); // class name -> entry
+		for(Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); )
+		{
+			ZipEntry zipEntry = e.nextElement();
+			String entryName = zipEntry.getName();
+			if(zipEntry.isDirectory() || !entryName.endsWith(".class")) continue;
+			hmEntries.put(entryName.substring(0, entryName.length() - 6).replace('/', '.'), zipEntry);
+		}
+
+		Map<String, Set<String>> hmReferences = new HashMap<String, Set<String>>();
+		Map<String, Set<String>> hmSuperTypes = new HashMap<String, Set<String>>(); // null: unknown
+		for(String className : hmEntries.keySet())
+		{
+			ZipEntry zipEntry = hmEntries.get(className);
+			Set<String> hsReferences = new HashSet<String>();
+			Set<String> hsSuperTypes = new HashSet<String>();
+
+			InputStream in = zipFile.getInputStream(zipEntry);
+			try
+			{
+				JavaClass javaClass = new ClassParser(in, zipEntry.getName()).parse();
+				for(Constant constant : javaClass.getConstantPool().getConstantPool())
+				{
+					if(!(constant instanceof ConstantUtf8)) continue;
+
+					String s = ((ConstantUtf8)constant).getBytes();
+					hsReferences.add(s.replace('/', '.'));
+
+					if(s.indexOf(';') < 0) continue;
+					Matcher m = pDescriptor.matcher(s);
+					while(m.find()) hsReferences.add(m.group(1).replace('/', '.'));
+				}
+
+				hsSuperTypes.add(javaClass.getSuperclassName());
+				hsSuperTypes.addAll(Arrays.asList(javaClass.getInterfaceNames()));
+			} catch(ClassFormatException ex)
+			{
+				hsSuperTypes = null;
+			} finally
+			{
+				in.close();
+			}
+
+			hsReferences.retainAll(hmEntries.keySet());
+			hmReferences.put(className, hsReferences);
+			if(hsSuperTypes != null) hsSuperTypes.retainAll(hmEntries.keySet());
+			hmSuperTypes.put(className, hsSuperTypes);
+		}
+
+		Map<String, String> hmNames = new HashMap<String, String>();
+		for(String className : hmEntries.keySet())
+		{
+			Set<String> hsDependencies = new TreeSet<String>();
+			boolean known = addWithSuperTypes(className, hmSuperTypes, hsDependencies);
+			for(String reference : hmReferences.get(className))
+			{
+				if(!addWithSuperTypes(reference, hmSuperTypes, hsDependencies)) known = false;
+			}
+			if(!known) hsDependencies.addAll(hmEntries.keySet());
+
+			ZipEntry zipEntry = hmEntries.get(className);
+			StringBuffer sb = new StringBuffer(zipEntry.getName()).append('\n');
+			boolean cacheable = true;
+			for(String dependency : hsDependencies)
+			{
+				ZipEntry dependencyEntry = hmEntries.get(dependency);
+				if(dependencyEntry.getCrc() == -1 || dependencyEntry.getSize() == -1) cacheable = false;
+				sb.append(dependency + "|" + Long.toHexString(dependencyEntry.getCrc()) + "|" + dependencyEntry.getSize() + "\n");
+			}
+
+			if(cacheable)
+			{
+				hmNames.put(zipEntry.getName(),
+						getSimpleName(zipEntry.getName()) + "-" + HashUtilities.hashString(sb.toString()).substring(0, 16) + ".o");
+			}
+		}
+		return hmNames;
+	}
+
+	/**
+	 * Returns a file name for a jar entry that is unique within the jar. Replacing
+	 * the slashes isn't enough, a/b_c.class and a_b/c.class would get the same name.
+	 */
+	public static String getEntryFileName(String entryName)
+	{
+		return getSimpleName(entryName) + "-" + HashUtilities.hashString(entryName).substring(0, 16);
+	}
+
+	/**
+	 * Returns the name of the object that contains all resources of a jar in
+	 * the entry cache directory.
+	 * 
+	 * @param flags The flags gcc compiles the resources with.
+	 * @return The file name or null if an entry can't be cached (unknown CRC or size).
+	 */
+	public static String getResourcesObjectName(List<ZipEntry> resources, List<String> flags)
+	{
+		StringBuffer sb = new StringBuffer();
+		for(String flag : flags) sb.append(flag + "\n");
+		for(ZipEntry zipEntry : resources)
+		{
+			if(zipEntry.getCrc() == -1 || zipEntry.getSize() == -1) return null;
+			sb.append(zipEntry.getName() + "|" + Long.toHexString(zipEntry.getCrc()) + "|" + zipEntry.getSize() + "\n");
+		}
+		return "resources-" + HashUtilities.hashString(sb.toString()).substring(0, 16) + ".o";
+	}
+
+	/**
+	 * Checks if the cache file exists and counts the hit or miss.
+	 */
+	public boolean isCached(File cacheFile)
+	{
+		if(cacheFile.exists())
+		{
+			store.touch(cacheFile);
+			hits.incrementAndGet();
+			return true;
+		}
+
+		misses.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Moves the compiled file into the store. Outdated entries aren't removed
+	 * here since other projects might still use them, the store evicts the
+	 * least recently used entries instead.
+	 */
+	public void store(File compiledFile, File cacheFile) throws IOException
+	{
+		store.install(compiledFile, cacheFile);
+	}
+
+	/**
+	 * Marks a cached entry object as used.
+	 */
+	public void touch(File entryObject)
+	{
+		store.touch(entryObject);
+	}
+
+	/**
+	 * The jar hash is remembered as long as the jar is unchanged. So it is
+	 * calculated only once for all targets and, in the daemon, for all compilations.
+	 */
+	public static String getJarHash(File jarFile) throws IOException
+	{
+		String id = jarFile.getAbsolutePath() + "|" + jarFile.length() + "|" + jarFile.lastModified();
+		String hash = hmJarHashes.get(id);
+		if(hash == null)
+		{
+			hash = HashUtilities.hashFile(jarFile);
+			hmJarHashes.put(id, hash);
+		}
+		return hash;
+	}
+
+	public int getHits() { return hits.get(); }
+	public int getMisses() { return misses.get(); }
+
+
+	// --------------- private methods ---------------
+
+	/**
+	 * Adds the class, its super classes and its interfaces.
+	 * 
+	 * @return false if one of them couldn't be parsed, its super types are unknown.
+	 */
+	private static boolean addWithSuperTypes(String className, Map<String, Set<String>> hmSuperTypes, Set<String> hsClasses)
+	{
+		boolean known = true;
+		LinkedList<String> llQueue = new LinkedList<String>();
+		llQueue.add(className);
+		while(!llQueue.isEmpty())
+		{
+			String name = llQueue.removeFirst();
+			if(!hsClasses.add(name)) continue;
+
+			Set<String> hsSuperTypes = hmSuperTypes.get(name);
+			if(hsSuperTypes == null) known = false;
+			else llQueue.addAll(hsSuperTypes);
+		}
+		return known;
+	}
+
+	private static String getSimpleName(String entryName)
+	{
+		return entryName.substring(entryName.lastIndexOf('/') + 1);
+	}
+
+	private String getBaseName(File jarFile, String os)
+	{
+		String fileName = jarFile.getName();
+		return fileName.substring(0, fileName.length()-4) + "-" + os;
+	}
+}
@@ -0,0 +1,375 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import ch.mtSystems.jnc.model.utilities.FileUtilities;
+import ch.mtSystems.jnc.model.utilities.HashUtilities;
+
+
+/**
+ * JarStore is the machine-wide directory that keeps the compiled jars of all
+ * projects. The entries are addressed by their key (jar content, flags and
+ * compiler), so projects share them regardless of where their jars are.<br>
+ * <br>
+ * Several JNC processes might use the store at the same time. Entries are only
+ * added by atomic renames. Compilations hold a shared lock on "store.lock" while
+ * they use the store. Removing entries (garbage collection, verification) needs
+ * the exclusive lock. The least recently used entries are removed first, the
+ * modification time of an entry is updated whenever it's used.
+ */
+public class JarStore
+{
+	private static final String LOCK_FILE = "store.lock";
+	private static final String SUM_SUFFIX = ".sum";
+	private static final long TMP_FILE_AGE = 60 * 60 * 1000; // leftovers of crashed installations
+	private static Map<File, JarStore> hmStores = new HashMap<File, JarStore>();
+
+	private File dir;
+	private RandomAccessFile lockFile;
+	private FileLock sharedLock;
+	private int lockCount;
+
+
+	/**
+	 * Returns the store for the given directory. There is only one instance
+	 * per directory since a process can't hold several locks on the same file.
+	 */
+	public static synchronized JarStore getStore(File dir)
+	{
+		dir = dir.getAbsoluteFile();
+		JarStore store = hmStores.get(dir);
+		if(store == null)
+		{
+			store = new JarStore(dir);
+			hmStores.put(dir, store);
+		}
+		return store;
+	}
+
+	private JarStore(File dir)
+	{
+		this.dir = dir;
+	}
+
+
+	// --------------- public methods ---------------
+
+	public File getDir() { return dir; }
+
+	/**
+	 * Acquires the shared lock. Entries won't be removed until unlock is called.
+	 * Calls can be nested.
+	 */
+	public synchronized void lock() throws IOException
+	{
+		if(lockCount > 0)
+		{
+			lockCount++;
+			return;
+		}
+
+		createDir();
+		lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+		sharedLock = lockFile.getChannel().lock(0, Long.MAX_VALUE, true);
+		lockCount = 1;
+	}
+
+	public synchronized void unlock() throws IOException
+	{
+		if(lockCount == 0 || --lockCount > 0) return;
+
+		sharedLock.release();
+		lockFile.close();
+		sharedLock = null;
+		lockFile = null;
+	}
+
+	/**
+	 * Marks the entry (or the object in an entry directory) as used.
+	 */
+	public void touch(File f)
+	{
+		f.setLastModified(System.currentTimeMillis());
+	}
+
+	/**
+	 * Moves the compiled file into the store. Its checksum is written next
+	 * to it, so verify can detect a damaged entry.
+	 */
+	public void install(File compiledFile, File entry) throws IOException
+	{
+		createDir();
+
+		File sumFile = File.createTempFile(entry.getName(), ".tmp", dir);
+		FileWriter fw = new FileWriter(sumFile);
+		fw.write(HashUtilities.hashFile(compiledFile));
+		fw.close();
+		FileUtilities.installFile(sumFile, new File(dir, entry.getName() + SUM_SUFFIX), true);
+
+		FileUtilities.installFile(compiledFile, entry, true);
+	}
+
+	/**
+	 * Returns the entries: compiled jars and directories with the objects of jar entries.
+	 * They are sorted from the least to the most recently used.
+	 */
+	public List<Entry> list()
+	{
+		List<Entry> entries = new ArrayList<Entry>();
+		File[] fa = dir.listFiles();
+		if(fa == null) return entries;
+
+		for(File f : fa)
+		{
+			String name = f.getName();
+			if(name.equals(LOCK_FILE) || name.endsWith(SUM_SUFFIX) || name.endsWith(".tmp")) continue;
+
+			Entry entry = new Entry(f);
+			if(f.isDirectory())
+			{
+				for(File object : f.listFiles()) entry.add(object);
+			} else
+			{
+				entry.add(f);
+			}
+			entries.add(entry);
+		}
+
+		Collections.sort(entries, new Comparator<Entry>()
+			{
+				public int compare(Entry e1, Entry e2)
+				{
+					return (e1.lastUsed < e2.lastUsed) ? -1 : ((e1.lastUsed == e2.lastUsed) ? 0 : 1);
+				}
+			});
+		return entries;
+	}
+
+	/**
+	 * Removes the least recently used files until the store fits into maxSize.
+	 * 
+	 * @param maxSize The size in bytes, 0 to only remove leftovers.
+	 * @param wait Wait for running compilations instead of skipping the collection.
+	 * @return The removed files or null if the store is in use.
+	 */
+	public List<File> collectGarbage(long maxSize, boolean wait) throws IOException
+	{
+		FileLock lock = lockExclusive(wait);
+		if(lock == null) return null;
+
+		try
+		{
+			List<File> removed = removeLeftovers();
+
+			// all files with their last use, entry directories are collected per object
+			List<File> files = new LinkedList<File>();
+			long size = 0;
+			for(Entry entry : list())
+			{
+				files.addAll(entry.files);
+				size += entry.size;
+			}
+			if(maxSize <= 0 || size <= maxSize) return removed;
+
+			Collections.sort(files, new Comparator<File>()
+				{
+					public int compare(File f1, File f2)
+					{
+						long l1 = f1.lastModified(), l2 = f2.lastModified();
+						return (l1 < l2) ? -1 : ((l1 == l2) ? 0 : 1);
+					}
+				});
+			for(File f : files)
+			{
+				if(size <= maxSize) break;
+
+				long length = f.length();
+				if(!f.delete()) continue;
+				new File(f.getPath() + SUM_SUFFIX).delete();
+				size -= length;
+				removed.add(f);
+
+				File parent = f.getParentFile();
+				if(!parent.equals(dir) && parent.list().length == 0) parent.delete();
+			}
+
+			return removed;
+		} finally
+		{
+			unlockExclusive(lock);
+		}
+	}
+
+	/**
+	 * Checks the entries against their checksums and the objects by their format.
+	 * Damaged entries are removed.
+	 * 
+	 * @return The removed files.
+	 */
+	public List<File> verify() throws IOException
+	{
+		FileLock lock = lockExclusive(true);
+		if(lock == null) throw new IOException("The store is in use!");
+
+		try
+		{
+			List<File> removed = removeLeftovers();
+			for(Entry entry : list())
+			{
+				for(File f : entry.files)
+				{
+					File sumFile = new File(f.getPath() + SUM_SUFFIX);
+					boolean ok = hasObjectFormat(f);
+					if(ok && sumFile.exists())
+					{
+						String sum = new String(FileUtilities.readFile(sumFile)).trim();
+						ok = sum.equals(HashUtilities.hashFile(f));
+					}
+					if(ok) continue;
+
+					f.delete();
+					sumFile.delete();
+					removed.add(f);
+				}
+			}
+
+			return removed;
+		} finally
+		{
+			unlockExclusive(lock);
+		}
+	}
+
+
+	// --------------- private methods ---------------
+
+	private void createDir() throws IOException
+	{
+		if(!dir.exists() && !dir.mkdirs() && !dir.exists()) throw new IOException("Unable to create \"" + dir + "\"");
+	}
+
+	/**
+	 * Returns the exclusive lock or null if it's not available (and wait is false).
+	 */
+	private FileLock lockExclusive(boolean wait) throws IOException
+	{
+		synchronized(this)
+		{
+			if(lockCount > 0) return null; // we're using the store ourselves
+		}
+
+		createDir();
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+		FileLock lock = wait ? raf.getChannel().lock() : raf.getChannel().tryLock();
+		if(lock == null) raf.close();
+		return lock;
+	}
+
+	private void unlockExclusive(FileLock lock) throws IOException
+	{
+		lock.release();
+		lock.channel().close();
+	}
+
+	/**
+	 * Removes temporary files of crashed installations and checksums without entry.
+	 */
+	private List<File> removeLeftovers()
+	{
+		List<File> removed = new LinkedList<File>();
+		for(File f : dir.listFiles())
+		{
+			String name = f.getName();
+			boolean leftover = name.endsWith(".tmp") && f.lastModified() < System.currentTimeMillis() - TMP_FILE_AGE;
+			if(name.endsWith(SUM_SUFFIX))
+			{
+				leftover = !(new File(dir, name.substring(0, name.length() - SUM_SUFFIX.length()))).exists();
+			}
+
+			if(leftover && f.delete()) removed.add(f);
+		}
+		return removed;
+	}
+
+	/**
+	 * Checks the magic number: archive, ELF or COFF (i386) object.
+	 */
+	private boolean hasObjectFormat(File f) throws IOException
+	{
+		byte[] ba = new byte[8];
+		FileInputStream fis = new FileInputStream(f);
+		int read;
+		try
+		{
+			read = fis.read(ba);
+		} finally
+		{
+			fis.close();
+		}
+
+		if(read == 8 && new String(ba, "ISO-8859-1").equals("!<arch>\n")) return true;
+		if(read >= 4 && ba[0] == 0x7f && ba[1] == 'E' && ba[2] == 'L' && ba[3] == 'F') return true;
+		return read >= 2 && ba[0] == 0x4c && ba[1] == 0x01;
+	}
+
+
+	// --------------- inner classes ---------------
+
+	/**
+	 * A compiled jar or a directory with the objects of jar entries.
+	 */
+	public static class Entry
+	{
+		private File file;
+		private List<File> files = new LinkedList<File>();
+		private long size, lastUsed;
+
+		private Entry(File file)
+		{
+			this.file = file;
+		}
+
+		private void add(File f)
+		{
+			files.add(f);
+			size += f.length();
+			lastUsed = Math.max(lastUsed, f.lastModified());
+		}
+
+		public File getFile() { return file; }
+		public int getFileCount() { return files.size(); }
+		public long getSize() { return size; }
+		public long getLastUsed() { return lastUsed; }
+	}
+}
@@ -20,53 +20,184 @@
 package ch.mtSystems.jnc.model;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
-import org.eclipse.swt.widgets.Display;
-
-import ch.mtSystems.jnc.model.utilities.ClassUtilities;
+import ch.mtSystems.jnc.model.utilities.ClassMetadataCache;
+import ch.mtSystems.jnc.model.utilities.FileDeployer;
 import ch.mtSystems.jnc.model.utilities.FileUtilities;
+import ch.mtSystems.jnc.model.utilities.HashUtilities;
+import ch.mtSystems.jnc.model.utilities.IProcessOutputListener;
+import ch.mtSystems.jnc.model.utilities.ProcessEngine;
 import ch.mtSystems.jnc.model.utilities.SettingsMemory;
 
 
 public class NativeCompiler
 {
+	private static final String[] SHARED_FLAGS = { "-shared", "-fPIC", "-nodefaultlibs" };
+	private static final String[] JAVA_ONLY_FLAGS = { "-fjni", "-findirect-dispatch", "-fbootstrap-classes",
+		"-freduced-reflection", "-fencoding=", "-fsource=", "-ftarget=", "-fextdirs=", "-fclasspath=", "-fbootclasspath=",
+		"-fassert", "-fno-assert", "-fbounds-check", "-fno-bounds-check", "-fstore-check", "-fno-store-check",
+		"-foptimize-static-class-initialization", "-fuse-", "-fno-use-", "-fcheck-references", "-fhash-synchronization",
+		"-fdisable-assertions", "-fenable-assertions", "-femit-class-file" };
+	private static final long MIN_SCRATCH_SPACE = 64 * 1024 * 1024; // 64mb
+
 	private ICompilationProgressLogger logger;
+	private ICompletionNotifier notifier;
+	private CompilationTimer timer;
+	private File timingReportFile, timingTraceFile;
 	private JNCProject project;
-	private File outDir;
-	
-	private File compilerPath;
-	private String javaLibPath;
-	private boolean guiFilesAdded;
-	private boolean suppressCommandLogging = false;
+	private ThreadPoolExecutor entryExecutor;
+	private JarCache jarCache;
+	private Map<File, String> sourceFiles;
+	private ClassReachability reachability;
+	private File scratchDir;
+	private final Object guiDataLock = new Object();
+	private final Object sourceLock = new Object(); // guards sourceFiles and reachability
+	private final Object executorLock = new Object(); // guards workerThreads
+	private int workerThreads;
+	private Set<ProcessEngine.Execution> runningProcesses = new HashSet<ProcessEngine.Execution>();
+	private Set<WorkerPool> workerPools = new HashSet<WorkerPool>();
+	private volatile boolean cancelled;
 
 
 	public NativeCompiler(ICompilationProgressLogger logger, JNCProject project)
 	{
 		this.logger = logger;
 		this.project = project;
-		javaLibPath = project.getJavaLibPath();
+	}
+
+	/**
+	 * Sets the notifier which is informed at the end of a compilation if the
+	 * project wants a beep. No notification is done if none is set.
+	 */
+	public void setCompletionNotifier(ICompletionNotifier notifier)
+	{
+		this.notifier = notifier;
+	}
+
+	/**
+	 * Writes how long the phases of the compilation took as JSON report and as trace
+	 * (Chrome trace event format) after every compilation. Either file can be null.
+	 */
+	public void setTimingReport(File reportFile, File traceFile)
+	{
+		timingReportFile = reportFile;
+		timingTraceFile = traceFile;
+	}
+
+	/**
+	 * Cancels the running compilation: All running commands are destroyed and no new
+	 * ones are started. compile() then returns false after cleaning up. Objects are
+	 * always installed in the caches atomically, so nothing half written remains.
+	 * Can be called from any thread.
+	 */
+	public void cancel()
+	{
+		synchronized(runningProcesses)
+		{
+			cancelled = true;
+			for(ProcessEngine.Execution execution : runningProcesses) execution.destroy();
+			for(WorkerPool workerPool : workerPools) workerPool.close(false);
+		}
+	}
+
+	/**
+	 * Returns whether the last compilation has been cancelled.
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
 	}
 
 	public boolean compile() throws Exception
 	{
+		cancelled = false;
+		ProcessEngine processEngine = ProcessEngine.getProcessEngine();
+		long processesLaunched = processEngine.getProcessesLaunched();
+		long processTime = processEngine.getProcessTime();
+		long outputBytes = processEngine.getOutputBytes();
+		timer = new CompilationTimer((logger instanceof ICompilationTimingLogger) ? (ICompilationTimingLogger)logger : null);
+		JarStore jarStore = JarStore.getStore(SettingsMemory.getSettingsMemory().getJarStoreDir());
+		jarCache = new JarCache(jarStore);
+		List<Target> targets = new LinkedList<Target>();
+		boolean tagLogs = project.getCompileWindows() && project.getCompileLinux();
+		if(project.getCompileWindows()) targets.add(new Target("win", tagLogs));
+		if(project.getCompileLinux()) targets.add(new Target("lin", tagLogs));
+
+		sourceFiles = null; // the sources might have changed since the last compilation
+		reachability = null;
+
+		scratchDir = project.getScratchDir();
+		if(scratchDir == null) scratchDir = SettingsMemory.getSettingsMemory().getScratchDir();
+		if(!checkScratchSpace()) { notifyDone(false); return false; }
+
+		// other JNC processes mustn't remove entries of the store while they're used
+		jarStore.lock();
+
+		// all targets share the threads which compile the jar entries
+		entryExecutor = (ThreadPoolExecutor)Executors.newFixedThreadPool(getCompileThreads());
+		workerThreads = 0;
+		ExecutorService stepExecutor = Executors.newFixedThreadPool(getCompileThreads());
+		BuildGraph graph = new BuildGraph(stepExecutor, timer,
+				(project.getCacheDir() == null) ? null : new File(project.getCacheDir(), "steps"));
+
 		try
 		{
-			guiFilesAdded = false;
+			// the steps of all targets are in the same graph, so the targets run side by side
+			boolean success = true;
+			for(Target t : targets)
+			{
+				if(!addSteps(graph, t)) success = false;
+			}
+			if(!graph.run()) success = false;
 
-			if(project.getCompileWindows() && !compile("win")) { beep(true); return false; }
-			if(project.getCompileLinux() && !compile("lin")) { beep(true); return false; }
+			boolean guiFilesAdded = false;
+			for(Target t : targets)
+			{
+				if(t.guiFilesAdded) guiFilesAdded = true;
+			}
+
+			logger.log("\n- jar cache: " + jarCache.getHits() + " hit(s), " + jarCache.getMisses() + " miss(es)", false);
+			logger.log("- build steps: " + graph.getStepCount() + " total, " + graph.getSkippedSteps() + " up to date", false);
+			logCriticalPath(graph);
+			logger.log("- commands: " + (processEngine.getProcessesLaunched() - processesLaunched) + " run, " +
+					(processEngine.getProcessTime() - processTime) + "ms, " +
+					(processEngine.getOutputBytes() - outputBytes) + " bytes output", false);
+			if(cancelled) { logger.log("- compilation cancelled", false); return false; }
+			if(!success) { notifyDone(false); return false; }
 
 			if(guiFilesAdded)
 			{
@@ -84,136 +215,504 @@ public class NativeCompiler
 				}
 			}
 
-			beep(false);
+			notifyDone(true);
 			return true;
 		} catch(Exception ex)
 		{
-			beep(true);
+			// a destroyed command might fail in any way
+			if(cancelled)
+			{
+				logger.log("\n- compilation cancelled", false);
+				return false;
+			}
+
+			notifyDone(false);
 			throw ex;
+		} finally
+		{
+			stepExecutor.shutdownNow();
+			entryExecutor.shutdownNow();
+			stepExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			entryExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			for(Target t : targets)
+			{
+				closeWorkers(t);
+				if(t.outDir != null) FileUtilities.deleteDirAsync(t.outDir);
+			}
+			jarStore.unlock();
+			collectGarbage(jarStore);
+			writeTimingReport();
 		}
 	}
 
-	private boolean compile(String os) throws Exception
+	/**
+	 * Keeps the jar store within its size limit. Skipped if another process uses it.
+	 */
+	private void collectGarbage(JarStore jarStore)
 	{
-		String arch = (os.equals("win")) ? "Windows" : "Linux";
-		File f = (os.equals("win")) ? project.getWindowsFile() : project.getLinuxFile();
-		logger.log("creating \"" + f.getName() + "\" for " + arch, false);
+		try
+		{
+			List<File> removed = jarStore.collectGarbage(SettingsMemory.getSettingsMemory().getJarStoreSize() * 1024L * 1024L, false);
+			if(removed != null && !removed.isEmpty())
+			{
+				logger.log("- jar store: " + removed.size() + " least recently used file(s) removed", false);
+			}
+		} catch(IOException ex)
+		{
+			logger.log("- jar store: garbage collection failed: " + ex.getMessage(), false);
+		}
+	}
 
-		String sCompilerPath = (os.equals("win")) ?
-				SettingsMemory.getSettingsMemory().getWindowsCompilerPath() :
-				SettingsMemory.getSettingsMemory().getLinuxCompilerPath();
-		if(sCompilerPath == null)
+	private void writeTimingReport()
+	{
+		try
 		{
-			logger.log("No " + arch + " compiler has been set!", true);
-			logger.log("You can specify the compiler paths in the settings...", true);
+			if(timingReportFile != null)
+			{
+				timer.writeReport(timingReportFile);
+				logger.log("- timing report: " + timingReportFile, false);
+			}
+
+			if(timingTraceFile != null)
+			{
+				timer.writeTrace(timingTraceFile);
+				logger.log("- timing trace: " + timingTraceFile, false);
+			}
+		} catch(IOException ioex)
+		{
+			// the compilation itself is not affected
+			ioex.printStackTrace();
+			logger.log("- writing the timing report failed: " + ioex.getMessage(), false);
+		}
+	}
+
+	/**
+	 * Lists the steps with the time they took, each one waited for the previous one.
+	 */
+	private void logCriticalPath(BuildGraph graph)
+	{
+		List<BuildGraph.Step> path = graph.getCriticalPath();
+		if(path.isEmpty()) return;
+
+		StringBuffer sb = new StringBuffer("- critical path: ");
+		for(BuildGraph.Step step : path)
+		{
+			if(step != path.get(0)) sb.append(" -> ");
+			sb.append(step).append(" (").append(step.getDuration() / 1000).append("ms");
+			sb.append((step.isSkipped()) ? ", up to date)" : ")");
+		}
+		logger.log(sb.toString(), false);
+	}
+
+	/**
+	 * Adds the steps of the target to the graph. The jars, the icon and the GUI data
+	 * don't depend on each other. The binary is linked when the jars and the icon
+	 * are done, then it's packed.
+	 * 
+	 * @return If the target can be compiled.
+	 */
+	private boolean addSteps(BuildGraph graph, final Target t) throws Exception
+	{
+		final File outFile = (t.os.equals("win")) ? project.getWindowsFile() : project.getLinuxFile();
+		t.log("creating \"" + outFile.getName() + "\" for " + t.arch, false);
+
+		if(t.compilerPath == null)
+		{
+			t.log("No " + t.arch + " compiler has been set!", true);
+			t.log("You can specify the compiler paths in the settings...", true);
 			return false;
 		}
-		compilerPath = new File(sCompilerPath);
 
-		outDir = FileUtilities.createTempDir("JNCTemp", ".out");
-		try
+		// the tools are looked up once, not before every command
+		boolean useIcon = t.os.equals("win") && project.getUseIcon() && project.getIconFile() != null;
+		t.toolchain = Toolchain.getToolchain(t.compilerPath);
+		if(getTool(t, "gcj") == null) return false;
+		if(useIcon && getTool(t, "windres") == null) return false;
+		if(!project.getOmitPacking() && getTool(t, "upx") == null) return false;
+
+		for(String flag : project.getGcjFlags())
 		{
-			adaptJavaLibPath(os);
-			if(!compileJars(os)) return false;
-			if(!finalCompile(os)) return false;
-			copyGuiData(os);
-		} finally
+			if(!t.toolchain.supportsFlag(flag)) t.log("- warning: gcj " + t.toolchain.getVersion() + " doesn't accept \"" + flag + "\"", false);
+		}
+
+		t.outDir = FileUtilities.createTempDir("JNCTemp", ".out", scratchDir);
+		adaptJavaLibPath(t);
+
+		BuildGraph.Step linkStep = new BuildGraph.Step(t.os, "link", outFile.getName())
+			{
+				protected String getKey() throws Exception
+				{
+					return getLinkKey(t, outFile, this);
+				}
+
+				protected boolean execute() throws Exception
+				{
+					closeWorkers(t); // all jars are done
+					return !cancelled && link(t, outFile);
+				}
+			};
+
+		File[] fa = project.getJars();
+		if(project.getSharedJars() && !t.os.equals("lin") && fa.length > 0)
+		{
+			t.log("- shared jars are only supported for Linux, linking them statically", false);
+		}
+
+		for(final File f : fa)
+		{
+			linkStep.dependsOn(graph.add(new BuildGraph.Step(t.os, "jar", f.getName())
+				{
+					protected boolean execute() throws Exception
+					{
+						return !cancelled && compileJar(t, f);
+					}
+				}));
+		}
+
+		if(useIcon)
 		{
-			FileUtilities.deleteDirRecursively(outDir);
+			// kept with the project, so it's only created again if the icon changed
+			final File iconFile = project.getIconFile();
+			t.iconObject = new File((project.getCacheDir() == null) ? t.outDir : project.getCacheDir(), "icon-" + t.os + ".o");
+
+			BuildGraph.Step iconStep = new BuildGraph.Step(t.os, "icon", iconFile.getName())
+				{
+					protected String getKey()
+					{
+						return t.toolchain.getTool("windres").toString();
+					}
+
+					protected boolean execute() throws Exception
+					{
+						return !cancelled && addIcon(t, iconFile);
+					}
+				};
+			iconStep.addInput(iconFile);
+			iconStep.addOutput(t.iconObject);
+			linkStep.dependsOn(graph.add(iconStep));
+		}
+
+		graph.add(linkStep);
+
+		if(!project.getOmitPacking())
+		{
+			BuildGraph.Step packStep = new BuildGraph.Step(t.os, "upx", outFile.getName())
+				{
+					protected String getKey()
+					{
+						return "level=" + project.getPackingLevel();
+					}
+
+					protected boolean execute() throws Exception
+					{
+						return !cancelled && packBinary(t, outFile);
+					}
+				};
+			packStep.addInput(t.toolchain.getTool("upx"));
+			packStep.addOutput(outFile);
+			graph.add(packStep.dependsOn(linkStep));
+		}
+
+		if(!project.getExcludeGui())
+		{
+			graph.add(new BuildGraph.Step(t.os, "guiData", "lib")
+				{
+					protected boolean execute() throws Exception
+					{
+						if(cancelled) return false;
+
+						copyGuiData(t);
+						return true;
+					}
+				});
 		}
 
 		return true;
 	}
 	
-	private void adaptJavaLibPath(String os)
+	private void adaptJavaLibPath(Target t)
 	{
 		if(project.getExcludeGui()) return;
 
-		if(javaLibPath == null)
+		if(t.javaLibPath == null)
 		{
-			javaLibPath = "lib"; 
+			t.javaLibPath = "lib"; 
 		} else
 		{
-			String sep = (os.equals("win")) ? ";" : ":";
-			javaLibPath = "lib" + sep + javaLibPath;
+			String sep = (t.os.equals("win")) ? ";" : ":";
+			t.javaLibPath = "lib" + sep + t.javaLibPath;
 		}
 	}
 
-	private void copyGuiData(String os) throws Exception
+	private void copyGuiData(Target t) throws Exception
 	{
 		if(project.getExcludeGui()) return;
 
-		List<File> dirList = new LinkedList<File>();
-		dirList.add(new File("libs/" + os + "/gui/lib"));
-		dirList.add(os.equals("win") ?
-			new File(project.getWindowsFile().getParentFile(), "lib") :
-			new File(project.getLinuxFile().getParentFile(), "lib"));
+		// both targets might copy into the same "lib" directory
+		synchronized(guiDataLock)
+		{
+			CompilationTimer.Phase phase = timer.start(t.os, "guiData", "lib");
+			try
+			{
+				copyGuiData(t, t.os.equals("win") ?
+					new File(project.getWindowsFile().getParentFile(), "lib") :
+					new File(project.getLinuxFile().getParentFile(), "lib"));
+			} finally
+			{
+				phase.end();
+			}
+		}
+	}
+
+	/**
+	 * Deploys the runtime files for AWT/Swing. Only new and changed files are
+	 * linked or copied, see FileDeployer.
+	 */
+	private void copyGuiData(Target t, File libDir) throws Exception
+	{
+		FileDeployer deployer = new FileDeployer(entryExecutor);
+		deployer.deploy(new File("libs/" + t.os + "/gui/lib"), libDir);
+
+		if(deployer.getLinked() + deployer.getCopied() > 0) t.guiFilesAdded = true;
+		t.log("- GUI data: " + deployer.getLinked() + " file(s) linked (" + deployer.getLinkedBytes() / 1024 + "KB), " +
+				deployer.getCopied() + " copied (" + deployer.getCopiedBytes() / 1024 + "KB), " +
+				deployer.getUnchanged() + " unchanged (" + deployer.getUnchangedBytes() / 1024 + "KB)", false);
+	}
 
-		while(!dirList.isEmpty())
+	/**
+	 * Connects to the configured workers when the first jar entry of the target
+	 * needs to be compiled. The entry threads are increased by their slots.
+	 * 
+	 * @return The workers or null if none are available.
+	 */
+	private WorkerPool getWorkers(Target t) throws Exception
+	{
+		// the pool is resized outside of the lock of the target
+		WorkerPool workerPool;
+		int slots;
+		synchronized(t)
 		{
-			File curSrcDir = dirList.remove(0);
-			File curOutDir = dirList.remove(0);
+			if(t.workersConnected) return t.workers;
+			t.workersConnected = true;
+
+			String[] addresses = SettingsMemory.getSettingsMemory().getWorkers();
+			if(addresses.length == 0) return null;
 
-			if(!curOutDir.exists() && !curOutDir.mkdirs()) throw new Exception("Unable to create \"" + curOutDir + "\"");
-			for(File fSrc : curSrcDir.listFiles())
+			workerPool = new WorkerPool(t.os, t.toolchain.getVersion(), project.getJars());
+			synchronized(runningProcesses)
 			{
-				File fOut = new File(curOutDir, fSrc.getName());
+				if(cancelled) return null;
+				workerPools.add(workerPool);
+			}
 
-				if(fSrc.isDirectory())
-				{
-					dirList.add(fSrc);
-					dirList.add(fOut);
-				} else
-				{
-					if(fOut.exists()) continue;
-					FileUtilities.copyFile(fSrc, fOut);
-					guiFilesAdded = true;
-				}
+			slots = workerPool.connect(addresses);
+			for(String problem : workerPool.getProblems()) t.log("- worker " + problem + ", not used", false);
+			if(slots == 0)
+			{
+				synchronized(runningProcesses) { workerPools.remove(workerPool); }
+				t.log("- no worker available, compiling locally", false);
+				return null;
 			}
+
+			t.log("- " + slots + " worker slot(s) connected", false);
+			t.workers = workerPool;
+			t.workerSlots = slots;
 		}
+
+		resizeEntryExecutor(slots);
+		return workerPool;
 	}
 
-	private boolean compileJars(String os) throws Exception
+	private void closeWorkers(Target t)
 	{
-		File[] fa = project.getJars();
-		for(File f : fa)
+		int slots;
+		synchronized(t)
 		{
-			// test if cached
-			String objectType = project.getCompileCompleteJar(f) ? ".o" : ".a";
-			String fileName = f.getName();
-			fileName = fileName.substring(0, fileName.length()-4) + "-" + os + ".jar" + objectType;
-			
-			File cachedJar = new File(f.getParentFile(), fileName);
-			if(cachedJar.exists()) continue;
+			t.workersConnected = false;
+			if(t.workers == null) return;
+
+			slots = t.workerSlots;
+			synchronized(runningProcesses) { workerPools.remove(t.workers); }
+			t.workers.close(true);
+			t.workers = null;
+			t.workerSlots = 0;
+		}
+
+		resizeEntryExecutor(-slots);
+	}
 
-			File fTarget = (project.getDontCacheJars()) ? new File(outDir, fileName) : cachedJar;
-			if(project.getCompileCompleteJar(f))
+	/**
+	 * Adds (or removes) threads, so remote and local entry compilations run side by side.
+	 */
+	private void resizeEntryExecutor(int delta)
+	{
+		synchronized(executorLock)
+		{
+			// only the sum counts, so connecting and closing may be reordered
+			workerThreads += delta;
+			int threads = getCompileThreads() + Math.max(0, workerThreads);
+			if(threads > entryExecutor.getCorePoolSize())
 			{
-				if(!compileSource(f, fTarget, os)) return false;
+				entryExecutor.setMaximumPoolSize(threads);
+				entryExecutor.setCorePoolSize(threads);
 			} else
 			{
-				if(!compileJarToArchive(f, fTarget, os)) return false;
+				entryExecutor.setCorePoolSize(threads);
+				entryExecutor.setMaximumPoolSize(threads);
 			}
 		}
+	}
+
+	private boolean compileJar(Target t, File f) throws Exception
+	{
+		boolean shared = project.getSharedJars() && t.os.equals("lin");
+		boolean complete = shared || project.getCompileCompleteJar(f);
+		List<String> keyFlags = new LinkedList<String>(getJarFlags(t));
+		if(shared) keyFlags.addAll(Arrays.asList(SHARED_FLAGS));
+		Collections.sort(keyFlags);
+
+		// the classes are compiled against the gui jar and the other jars
+		List<File> classpath = new LinkedList<File>();
+		classpath.add(new File("libs/" + t.os + "/gui/gui.jar"));
+		for(File jar : project.getJars())
+		{
+			if(!jar.equals(f)) classpath.add(jar);
+		}
+
+		// test if cached
+		String configurationKey = jarCache.getConfigurationKey(t.os, complete, keyFlags, classpath,
+				t.toolchain.getIdentity());
+		String jarKey = configurationKey;
+
+		// the archive only contains the reachable classes, so they're part of the key
+		Set<String> keptEntries = null;
+		if(!complete && project.getPruneClasses())
+		{
+			ClassReachability cr = getReachability(t);
+			keptEntries = cr.getReachableEntries(f);
+			t.log("- " + f.getName() + ": " + keptEntries.size() + " of " + cr.getClassCount(f) + " classes reachable", false);
 
+			StringBuffer sb = new StringBuffer(configurationKey).append('\n');
+			for(String entry : new TreeSet<String>(keptEntries)) sb.append(entry).append('\n');
+			jarKey = HashUtilities.hashString(sb.toString());
+		}
+
+		String key = jarCache.getKey(f, jarKey);
+		File cachedJar = shared ? jarCache.getSharedCacheFile(f, t.os, key) : jarCache.getCacheFile(f, t.os, complete, key);
+		if(jarCache.isCached(cachedJar))
+		{
+			t.addJarObject(f, cachedJar);
+			return true;
+		}
+
+		File fTarget = new File(t.outDir, cachedJar.getName());
+		File entryCacheDir = null;
+		if(shared)
+		{
+			if(!compileSharedJar(f, fTarget, t)) return false;
+		} else if(complete)
+		{
+			if(!compileSource(f, fTarget, t, false)) return false;
+		} else
+		{
+			// keep the objects of the entries, a changed jar then only recompiles the changed entries
+			if(!project.getDontCacheJars()) entryCacheDir = jarCache.getEntryCacheDir(f, t.os, configurationKey);
+			if(!compileJarToArchive(f, fTarget, entryCacheDir, keptEntries, t)) return false;
+			if(!fTarget.exists()) return true; // nothing imported
+		}
+
+		if(!project.getDontCacheJars())
+		{
+			jarCache.store(fTarget, cachedJar);
+			fTarget = cachedJar;
+		}
+		t.addJarObject(f, fTarget);
 		return true;
 	}
 
-	private boolean compileSource(File sourceFile, File objectFile, String os) throws Exception
+	/**
+	 * Returns the flags used to compile jars.
+	 */
+	private List<String> getJarFlags(Target t)
 	{
-		LinkedList<String> alCmd = new LinkedList<String>();
-		alCmd.add((new File(compilerPath, "bin/gcj")).toString());
-		if(!project.getUseCni()) alCmd.add("-fjni");
-		if(!project.getDisableOptimisation()) alCmd.add("-O2");
-		alCmd.add("-Ilibs/" + os + "/gui/gui.jar");
-		alCmd.add("-c"); alCmd.add(sourceFile.toString());
-		alCmd.add("-o"); alCmd.add(objectFile.toString());
+		List<String> flags = new LinkedList<String>();
+		if(!project.getUseCni()) flags.add("-fjni");
+		if(!project.getDisableOptimisation()) flags.add("-O2");
+		flags.add("-Ilibs/" + t.os + "/gui/gui.jar");
 
 		for(String flag : project.getGcjFlags())
 		{
-			if(!project.getFlagMainCompilationOnly(flag)) alCmd.add(flag);
+			if(!project.getFlagMainCompilationOnly(flag)) flags.add(flag);
 		}
 
+		return flags;
+	}
+
+	/**
+	 * Returns the machine and code generation flags (-m..., -f...) of the jar flags
+	 * that gcc understands as well, the generated resource source has to match the
+	 * objects gcj creates (e.g. -m32 or -fPIC).
+	 */
+	private List<String> getResourceFlags(Target t)
+	{
+		List<String> flags = new LinkedList<String>();
+		for(String flag : getJarFlags(t))
+		{
+			if(!flag.startsWith("-m") && !flag.startsWith("-f")) continue;
+			if(!isJavaOnlyFlag(flag)) flags.add(flag);
+		}
+		return flags;
+	}
+
+	private static boolean isJavaOnlyFlag(String flag)
+	{
+		for(String javaOnlyFlag : JAVA_ONLY_FLAGS)
+		{
+			if(javaOnlyFlag.endsWith("=") || javaOnlyFlag.endsWith("-"))
+			{
+				if(flag.startsWith(javaOnlyFlag)) return true;
+			} else if(flag.equals(javaOnlyFlag))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compiles the whole jar into a shared library named like its cache file. The
+	 * libgcj symbols aren't linked in, they're resolved against the binary when loaded.
+	 */
+	private boolean compileSharedJar(File jarFile, File libraryFile, Target t) throws Exception
+	{
+		LinkedList<String> alCmd = new LinkedList<String>();
+		alCmd.add(t.toolchain.getTool("gcj").toString());
+		alCmd.addAll(getJarFlags(t));
+		alCmd.addAll(Arrays.asList(SHARED_FLAGS));
+		alCmd.add("-Wl,-soname," + libraryFile.getName());
+		alCmd.add(jarFile.toString());
+		alCmd.add("-o"); alCmd.add(libraryFile.toString());
+
+		for(File f : project.getJars())
+		{
+			if(!f.equals(jarFile)) alCmd.add("-I" + f);
+		}
+
+		String[] saCmd = alCmd.toArray(new String[0]);
+		return runCmd(t, saCmd, "processing " + jarFile.getName() + " into a shared library", true);
+	}
+
+	/**
+	 * @param quiet Whether the command isn't logged (e.g. for the single entries of a jar).
+	 */
+	private boolean compileSource(File sourceFile, File objectFile, Target t, boolean quiet) throws Exception
+	{
+		LinkedList<String> alCmd = new LinkedList<String>();
+		alCmd.add(t.toolchain.getTool("gcj").toString());
+		alCmd.addAll(getJarFlags(t));
+		alCmd.add("-c"); alCmd.add(sourceFile.toString());
+		alCmd.add("-o"); alCmd.add(objectFile.toString());
+
 		File[] faJars = project.getJars();
 		for(File f : faJars)
 		{
@@ -222,124 +721,479 @@ public class NativeCompiler
 		}
 
 		String[] saCmd = alCmd.toArray(new String[0]);
-		return runCmd(saCmd, "processing " + sourceFile.getName(), true);
+		return runCmd(t, saCmd, "processing " + sourceFile.getName(), true, quiet);
 	}
 	
-	private boolean compilePropertiesFile(File propertiesFile, String propertiesName,
-			File objectFile, String os) throws Exception
+	/**
+	 * Returns if the jar entry has to be embedded. The manifest and the signatures
+	 * only concern the jar itself.
+	 */
+	private static boolean isResource(String zipEntryName)
 	{
+		if(zipEntryName.endsWith(".class")) return false;
+
+		String name = zipEntryName.toUpperCase();
+		if(!name.startsWith("META-INF/") || name.indexOf('/', 9) > -1) return true;
+		if(name.equals("META-INF/MANIFEST.MF") || name.equals("META-INF/INDEX.LIST")) return false;
+		return !(name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.startsWith("META-INF/SIG-"));
+	}
+
+	/**
+	 * Embeds the resources with a single compiler call instead of one "gcj --resource"
+	 * per resource. A C source is generated that registers each resource at startup
+	 * like gcj does: _Jv_RegisterResource gets { int name_length; int data_length;
+	 * char data[] } with the name followed by the data.
+	 * Properties keep their dotted names (foo.bar.Messages.properties), other resources
+	 * are registered by their path (foo/bar/icon.png).
+	 */
+	private boolean compileResources(Target t, ZipFile zipFile, List<ZipEntry> resources,
+			File sourceFile, File objectFile) throws Exception
+	{
+		String jarName = new File(zipFile.getName()).getName();
+		Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sourceFile), "US-ASCII"));
+		try
+		{
+			w.write("/* Generated by JNC: the resources of " + jarName.replaceAll("\\*/", "") + " */\n\n");
+			w.write("extern void _Jv_RegisterResource (void *);\n");
+
+			int index = 0;
+			for(ZipEntry zipEntry : resources)
+			{
+				String zipEntryName = zipEntry.getName();
+				byte[] name = ((zipEntryName.endsWith(".properties")) ?
+						zipEntryName.replaceAll("\\/", ".") :
+						zipEntryName).getBytes("UTF-8");
+				byte[] data = readZipEntry(zipFile, zipEntry);
+
+				w.write("\nstatic struct { int name_length; int data_length; char data[" + (name.length + data.length) +
+						"]; } resource" + (index++) + " =\n");
+				w.write("\t{ " + name.length + ", " + data.length + ",\n");
+				writeStringLiteral(w, name);
+				writeStringLiteral(w, data);
+				w.write("\t};\n");
+			}
+
+			w.write("\nstatic void register_resources (void) __attribute__ ((constructor));\n");
+			w.write("static void register_resources (void)\n{\n");
+			for(int i=0; i<index; i++) w.write("\t_Jv_RegisterResource (&resource" + i + ");\n");
+			w.write("}\n");
+		} finally
+		{
+			w.close();
+		}
+
 		LinkedList<String> alCmd = new LinkedList<String>();
-		alCmd.add((new File(compilerPath, "bin/gcj")).toString());
-		alCmd.add("--resource");
-		alCmd.add(propertiesName);
-		alCmd.add("-c"); alCmd.add(propertiesFile.toString());
+		alCmd.add(t.toolchain.getTool("gcc").toString());
+		alCmd.addAll(getResourceFlags(t));
+		alCmd.add("-c"); alCmd.add(sourceFile.toString());
 		alCmd.add("-o"); alCmd.add(objectFile.toString());
 
-		for(String flag : project.getGcjFlags())
+		String[] saCmd = alCmd.toArray(new String[0]);
+		CompilationTimer.Phase phase = timer.start(t.os, "resource", jarName);
+		phase.addDetail("resources", Integer.valueOf(resources.size()));
+		try
+		{
+			return runCmd(t, saCmd, "processing " + resources.size() + " resource(s)", true, true);
+		} finally
+		{
+			phase.end();
+		}
+	}
+
+	/**
+	 * Writes the bytes as C string literals, 64 bytes per line. Octal escapes always
+	 * have three digits, so a following digit can't become part of them.
+	 */
+	private static void writeStringLiteral(Writer w, byte[] ba) throws IOException
+	{
+		for(int i=0; i<ba.length; i+=64)
+		{
+			StringBuffer sb = new StringBuffer("\t\t\"");
+			for(int j=i; j<ba.length && j<i+64; j++)
+			{
+				int b = ba[j] & 0xff;
+				if(b == '"' || b == '\\' || b == '?') sb.append('\\').append((char)b); // '?' because of trigraphs
+				else if(b >= 0x20 && b < 0x7f)        sb.append((char)b);
+				else                                  sb.append('\\').append((char)('0' + (b >> 6))).append((char)('0' + ((b >> 3) & 7))).append((char)('0' + (b & 7)));
+			}
+			w.write(sb.append("\"\n").toString());
+		}
+	}
+
+	/**
+	 * Compiles all classes and resources of the jar into an archive.
+	 * 
+	 * @param entryCacheDir Where the objects of the entries are cached. Can be null.
+	 * @param keptEntries The classes to compile. Null to compile all.
+	 */
+	private boolean compileJarToArchive(File jarFile, File archiveFile, final File entryCacheDir,
+			Set<String> keptEntries, final Target t) throws Exception
+	{
+		t.log("- processing " + jarFile.getName(), false);
+		final File tmpDir = FileUtilities.createTempDir("JNCTemp", ".out", scratchDir);
+		final ZipFile zipFile = new ZipFile(jarFile);
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final AtomicInteger compiledEntries = new AtomicInteger();
+		List<Future<File>> objectFiles = new LinkedList<Future<File>>();
+		final List<ZipEntry> resources = new LinkedList<ZipEntry>();
+
+		// A temporary archive file is used since the compilation might fail.
+		// Otherwise the user might get a broken archive if he caches the jars...
+		File tmpArchiveFile = new File(tmpDir, "archive.a");
+
+		try
+		{
+			if(entryCacheDir != null && !entryCacheDir.exists() && !entryCacheDir.mkdirs() && !entryCacheDir.exists())
+			{
+				throw new IOException("Unable to create \"" + entryCacheDir + "\"");
+			}
+
+			// the objects of the entries also depend on the classes they use
+			final Map<String, String> hmObjectNames = (entryCacheDir == null) ? null : JarCache.getEntryObjectNames(zipFile);
+
+			// The entries are compiled concurrently but kept in jar order. So the
+			// archive members are always added in the same order.
+			for(Enumeration e = zipFile.entries(); e.hasMoreElements(); )
+			{
+				final ZipEntry zipEntry = (ZipEntry)e.nextElement();
+				if(zipEntry.isDirectory()) continue;
+
+				final String zipEntryName = zipEntry.getName(); // something like org/eclipse/swt/Foo.class
+				if(!zipEntryName.endsWith(".class"))
+				{
+					if(isResource(zipEntryName)) resources.add(zipEntry);
+					continue;
+				}
+				if(keptEntries != null && !keptEntries.contains(zipEntryName)) continue;
+
+				objectFiles.add(entryExecutor.submit(new Callable<File>()
+					{
+						public File call() throws Exception
+						{
+							if(failed.get()) return null;
+
+							// reuse the object if neither the entry nor the classes it depends on changed
+							String cachedObjectName = (hmObjectNames == null) ? null : hmObjectNames.get(zipEntryName);
+							File cachedObject = (cachedObjectName == null) ? null : new File(entryCacheDir, cachedObjectName);
+							if(cachedObject != null && cachedObject.exists())
+							{
+								jarCache.touch(cachedObject);
+								return cachedObject;
+							}
+
+							// keep the name (Foo.class), the path makes it unique
+							File sourceFile = new File(tmpDir, "src/" + zipEntryName);
+							File objectFile = new File(tmpDir, JarCache.getEntryFileName(zipEntryName) + ".o");
+
+							boolean ok;
+							CompilationTimer.Phase phase = timer.start(t.os, "entry", zipEntryName);
+							try
+							{
+								ok = compileEntry(t, zipFile, zipEntry, sourceFile, objectFile);
+							} finally
+							{
+								phase.end();
+							}
+
+							if(!ok)
+							{
+								failed.set(true);
+								return null;
+							}
+
+							compiledEntries.incrementAndGet();
+							if(cachedObject == null) return objectFile;
+
+							FileUtilities.installFile(objectFile, cachedObject, true);
+							return cachedObject;
+						}
+					}));
+			}
+
+			// all resources are put into a single object, compiled by gcc
+			if(!resources.isEmpty() && t.toolchain.getTool("gcc") == null)
+			{
+				t.log("Can't embed the " + resources.size() + " resource(s) of " + jarFile.getName() + ", \"gcc\" doesn't exist in \"" +
+						new File(t.compilerPath, "bin") + "\" (the compiler seems to be incomplete)!", true);
+				return false;
+			}
+			if(!resources.isEmpty())
+			{
+				objectFiles.add(entryExecutor.submit(new Callable<File>()
+					{
+						public File call() throws Exception
+						{
+							if(failed.get()) return null;
+
+							String cachedObjectName = (entryCacheDir == null) ? null : JarCache.getResourcesObjectName(resources, getResourceFlags(t));
+							File cachedObject = (cachedObjectName == null) ? null : new File(entryCacheDir, cachedObjectName);
+							if(cachedObject != null && cachedObject.exists())
+							{
+								jarCache.touch(cachedObject);
+								return cachedObject;
+							}
+
+							File objectFile = new File(tmpDir, "resources.o");
+							if(!compileResources(t, zipFile, resources, new File(tmpDir, "resources.c"), objectFile))
+							{
+								failed.set(true);
+								return null;
+							}
+
+							compiledEntries.incrementAndGet();
+							if(cachedObject == null) return objectFile;
+
+							FileUtilities.installFile(objectFile, cachedObject, true);
+							return cachedObject;
+						}
+					}));
+			}
+
+			List<File> archiveMembers = new LinkedList<File>();
+			for(Future<File> future : objectFiles)
+			{
+				File objectFile = getResult(future);
+				if(objectFile == null) return false;
+				archiveMembers.add(objectFile);
+			}
+
+			if(entryCacheDir != null)
+			{
+				// objects of changed or removed entries are evicted by the jar store
+				t.log("- " + compiledEntries.get() + " of " + archiveMembers.size() + " entries compiled", true);
+			}
+
+			if(archiveMembers.isEmpty())
+			{
+				t.log("Warning: Nothing imported, JAR unused!", true);
+				return true;
+			}
+
+			if(!createArchive(t, tmpArchiveFile, archiveMembers, "creating archive " + archiveFile.getName())) return false;
+			if(!tmpArchiveFile.renameTo(archiveFile)) FileUtilities.copyFile(tmpArchiveFile, archiveFile);
+
+			return true;
+		} finally
+		{
+			failed.set(true);
+			cancelTasks(objectFiles);
+
+			FileUtilities.deleteDirAsync(tmpDir);
+			zipFile.close();
+		}
+	}
+
+	/**
+	 * Compiles a jar entry on an idle worker or, if there is none, locally.
+	 * If the worker fails, the entry is compiled locally as well.
+	 */
+	private boolean compileEntry(Target t, ZipFile zipFile, ZipEntry zipEntry, File sourceFile, File objectFile) throws Exception
+	{
+		String zipEntryName = zipEntry.getName();
+
+		WorkerPool workerPool = getWorkers(t);
+		WorkerPool.Connection worker = (workerPool == null) ? null : workerPool.poll();
+		if(worker != null)
+		{
+			boolean failed = true;
+			try
+			{
+				StringBuffer output = new StringBuffer();
+				boolean ok = worker.compile(zipEntryName, readZipEntry(zipFile, zipEntry),
+						getJarFlags(t), true, objectFile, output);
+				failed = false;
+
+				if(output.length() > 0) t.log(output.toString().trim(), true);
+				return ok && !cancelled;
+			} catch(IOException ex)
+			{
+				if(cancelled) return false;
+				t.log("- worker " + worker + " failed (" + ex.getMessage() + "), compiling locally", true);
+			} finally
+			{
+				workerPool.release(worker, failed);
+			}
+		}
+
+		// gcj needs the entry as file
+		extractZipEntry(zipFile, zipEntry, sourceFile);
+		try
+		{
+			return compileSource(sourceFile, objectFile, t, true);
+		} finally
+		{
+			sourceFile.delete();
+		}
+	}
+
+	/**
+	 * Checks that the directory for the intermediate files has enough space left.
+	 * The extracted entries, objects and archives take a multiple of the jars.
+	 */
+	private boolean checkScratchSpace()
+	{
+		File dir = (scratchDir != null) ? scratchDir : new File(System.getProperty("java.io.tmpdir"));
+		if(!dir.exists() && !dir.mkdirs())
 		{
-			if(!project.getFlagMainCompilationOnly(flag)) alCmd.add(flag);
+			logger.log("Unable to create the directory for intermediate files \"" + dir + "\"!", false);
+			return false;
 		}
 
-		String[] saCmd = alCmd.toArray(new String[0]);
-		return runCmd(saCmd, "processing " + propertiesFile.getName(), true);
+		// remove what's left of previous compilations (the toolchain probes always use the default)
+		FileUtilities.deleteTrash(dir, "JNCTemp");
+		if(scratchDir != null) FileUtilities.deleteTrash(new File(System.getProperty("java.io.tmpdir")), "JNCTemp");
+
+		long required = MIN_SCRATCH_SPACE;
+		for(File jar : project.getJars()) required += 5 * jar.length();
+
+		long usable = FileUtilities.getUsableSpace(dir);
+		if(usable < 0 || usable >= required) return true;
+
+		logger.log("Not enough space for the intermediate files in \"" + dir + "\": " +
+				(usable / 1024 / 1024) + "MB available, about " + (required / 1024 / 1024) + "MB required.", false);
+		logger.log("Free some space or choose another directory in the settings.", false);
+		return false;
 	}
-	
-	private boolean compileJarToArchive(File jarFile, File archiveFile, String os) throws Exception
+
+	/**
+	 * Creates the archive with a single ar call. The members are passed through a
+	 * response file, so the symbol index is only written once.
+	 */
+	private boolean createArchive(Target t, File archiveFile, List<File> members, String logLine) throws Exception
 	{
-		logger.log("- processing " + jarFile.getName(), false);
-		File tmpDir = FileUtilities.createTempDir("JNCTemp", ".out");
-		ZipFile zipFile = new ZipFile(jarFile);
-		suppressCommandLogging = true;
+		String ar = getTool(t, "ar");
+		if(ar == null) return false;
 
-		// A temporary archive file is used since the compilation might fail.
-		// Otherwise the user might get a broken archive if he caches the jars...
-		File tmpArchiveFile = new File(tmpDir, "archive.a");
-		
-		String[] saCmd = new String[4];
-		saCmd[0] = (new File(compilerPath, "bin/ar")).toString();
-		saCmd[1] = "qsc";
-		saCmd[2] = tmpArchiveFile.toString();
+		File fMemberList = File.createTempFile("ArchiveList", ".list", archiveFile.getParentFile());
+		FileWriter fw = new FileWriter(fMemberList);
+		for(File f : members) fw.write("\"" + f.toString().replaceAll("\\\\", "/") + "\"\n");
+		fw.flush();
+		fw.close();
+
+		String[] saCmd =
+			{
+				ar,
+				"qsc",
+				archiveFile.toString(),
+				"@" + fMemberList.toString()
+			};
 
+		CompilationTimer.Phase phase = timer.start(t.os, "archive", archiveFile.getName());
 		try
 		{
+			return runCmd(t, saCmd, logLine, true, true);
+		} finally
+		{
+			fMemberList.delete();
+			phase.end();
+		}
+	}
 
-			for(Enumeration e = zipFile.entries(); e.hasMoreElements(); )
-			{
-				ZipEntry zipEntry = (ZipEntry)e.nextElement();
-				if(zipEntry.isDirectory()) continue;
-
-				String zipEntryName = zipEntry.getName(); // something like org/eclipse/swt/Foo.class
-				if(!zipEntryName.endsWith(".class") && !zipEntryName.endsWith(".properties")) continue;
+	private byte[] readZipEntry(ZipFile zipFile, ZipEntry zipEntry) throws IOException
+	{
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream((zipEntry.getSize() > 0) ? (int)zipEntry.getSize() : 1024);
 
-				File tmpFile = new File(zipEntryName); 
-				File sourceFile = new File(tmpDir, tmpFile.getName()); // only use Foo.class
-				File objectFile = new File(tmpDir, zipEntryName.replaceAll("\\/", "_") + ".o");
+		// ZipFile is shared between the compilation threads
+		synchronized(zipFile)
+		{
+			InputStream inputStream = zipFile.getInputStream(zipEntry);
+			byte[] tmp = new byte[10 * 1024]; // 10kb
 
-				InputStream inputStream = zipFile.getInputStream(zipEntry);
-				FileOutputStream outputStream = new FileOutputStream(sourceFile);
-				byte[] tmp = new byte[10 * 1024]; // 10kb
+			while(true)
+			{
+				int len = inputStream.read(tmp);
+				if(len < 0) break;
+				outputStream.write(tmp, 0, len);
+			}
 
-				while(true)
-				{
-					int len = inputStream.read(tmp);
-					if(len < 0) break;
-					outputStream.write(tmp, 0, len);
-				}
+			inputStream.close();
+		}
 
-				outputStream.flush();
-				outputStream.close();
-				inputStream.close();
+		return outputStream.toByteArray();
+	}
 
-				if(zipEntryName.endsWith(".properties"))
-				{
-					String propName = zipEntryName.replaceAll("\\/", ".");
-					if(!compilePropertiesFile(sourceFile, propName, objectFile, os)) return false;
-				} else
-				{
-					if(!compileSource(sourceFile, objectFile, os)) return false;
-				}
+	private void extractZipEntry(ZipFile zipFile, ZipEntry zipEntry, File targetFile) throws IOException
+	{
+		File dir = targetFile.getParentFile();
+		if(!dir.exists() && !dir.mkdirs() && !dir.exists()) throw new IOException("Unable to create \"" + dir + "\"");
 
-				saCmd[3] = objectFile.toString();
-				if(!runCmd(saCmd, "creating archive " + archiveFile.getName(), true)) return false;
+		// ZipFile is shared between the compilation threads
+		synchronized(zipFile)
+		{
+			InputStream inputStream = zipFile.getInputStream(zipEntry);
+			FileOutputStream outputStream = new FileOutputStream(targetFile);
+			byte[] tmp = new byte[10 * 1024]; // 10kb
 
-				sourceFile.delete();
-				objectFile.delete();
+			while(true)
+			{
+				int len = inputStream.read(tmp);
+				if(len < 0) break;
+				outputStream.write(tmp, 0, len);
 			}
 
-			if(tmpArchiveFile.exists()) FileUtilities.copyFile(tmpArchiveFile, archiveFile);
-			else                        logger.log("Warning: Nothing imported, JAR unused!", true);
+			outputStream.flush();
+			outputStream.close();
+			inputStream.close();
+		}
+	}
 
-			return true;
-		} finally
+	/**
+	 * Waits for the given task and rethrows the exception it failed with.
+	 */
+	private <T> T getResult(Future<T> future) throws Exception
+	{
+		try
 		{
-			suppressCommandLogging = false;
-			FileUtilities.deleteDirRecursively(tmpDir);
-			zipFile.close();
+			return future.get();
+		} catch(ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if(cause instanceof Exception) throw (Exception)cause;
+			throw ex;
 		}
 	}
 
-	private boolean finalCompile(String os) throws Exception
+	/**
+	 * Cancels the tasks that didn't start yet and waits for the running ones.
+	 */
+	private void cancelTasks(List<? extends Future<?>> tasks)
 	{
-		File outFile = (os.equals("win")) ? project.getWindowsFile() : project.getLinuxFile();
-		if(!outFile.getParentFile().exists() && !outFile.getParentFile().mkdirs())
+		for(Future<?> future : tasks)
 		{
-			throw new Exception("Creating the directory \"" + outFile.getParentFile() + "\" failed!");
+			if(future.cancel(false)) continue;
+
+			try
+			{
+				future.get();
+			} catch(Exception ex) { } // the failure has already been handled
 		}
+	}
+
+	private int getCompileThreads()
+	{
+		int threads = project.getCompileThreads();
+		return (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+	}
 
+	/**
+	 * Returns the command of the main compilation step without the classpath and the inputs.
+	 */
+	private List<String> getLinkFlags(Target t, File outFile)
+	{
 		LinkedList<String> alCmd = new LinkedList<String>();
-		alCmd.add((new File(compilerPath, "bin/gcj")).toString());
+		alCmd.add(t.toolchain.getTool("gcj").toString());
 
 		// Java settings
 		alCmd.add("--main=" + project.getMainClass());
 		if(!project.getUseCni()) alCmd.add("-fjni");
-		if(javaLibPath != null) alCmd.add("-Djava.library.path=" + javaLibPath);
+		if(t.javaLibPath != null) alCmd.add("-Djava.library.path=" + t.javaLibPath);
 
 		if(!project.getExcludeGui())
 		{
 			alCmd.add("-Dsun.java2d.fontpath=");
 			alCmd.add("-Djava.home=.");
 
-			if(os.equals("win"))
+			if(t.os.equals("win"))
 			{
 				alCmd.add("-Djava.awt.graphicsenv=sun.awt.Win32GraphicsEnvironment");
 				alCmd.add("-Dawt.toolkit=sun.awt.windows.WToolkit");
@@ -350,16 +1204,12 @@ public class NativeCompiler
 			}
 		}
 
-		alCmd.add("-Llibs/" + os );
-		alCmd.add("-Ilibs/" + os + "/gui/gui.jar");
+		alCmd.add("-Llibs/" + t.os );
+		alCmd.add("-Ilibs/" + t.os + "/gui/gui.jar");
 
 		// Executable settings
 		alCmd.add("-o" + outFile);
-		if(os.equals("win"))
-		{
-			if(!addIcon()) return false;
-			if(project.getHideConsole()) alCmd.add("-mwindows");
-		}
+		if(t.os.equals("win") && project.getHideConsole()) alCmd.add("-mwindows");
 		if(!project.getOmitStripping()) alCmd.add("-s");
 		if(!project.getDisableOptimisation()) alCmd.add("-O2");
 
@@ -370,22 +1220,60 @@ public class NativeCompiler
 		if(project.getAddGnuRegex()) alCmd.add("-ljncRegex");
 
 		// License
-		if(os.equals("win"))
+		if(t.os.equals("win"))
 		{
 			String license = SettingsMemory.getSettingsMemory().getLicense(); 
 			alCmd.add((license != null) ? "-Djnc.license=" + license : "-ljncTrial");
 		}
 
+		return alCmd;
+	}
+
+	/**
+	 * Returns what the binary depends on besides the sources, which are added as
+	 * inputs of the link step. The compiled jars are identified by their names
+	 * since they contain their keys. Packing is part of the key since the binary
+	 * is only packed again when it has been linked again.
+	 */
+	private String getLinkKey(Target t, File outFile, BuildGraph.Step linkStep) throws Exception
+	{
+		StringBuffer sb = new StringBuffer(t.toolchain.getIdentity());
+		for(String arg : getLinkFlags(t, outFile)) sb.append('\n').append(arg);
+		sb.append("\nincremental=" + project.getIncrementalCompilation());
+		sb.append("\npacking=" + ((project.getOmitPacking()) ? "none" : String.valueOf(project.getPackingLevel())));
+
+		for(File f : t.getJarObjects())
+		{
+			sb.append("\njar=" + f.getName() + "|" + f.length());
+			if(f.getName().endsWith(".so")) linkStep.addOutput(new File(new File(outFile.getParentFile(), "lib"), f.getName()));
+		}
+
+		for(File f : new TreeSet<File>(getSourceFiles(t).keySet())) linkStep.addInput(f);
+		if(t.iconObject != null) linkStep.addInput(t.iconObject);
+		linkStep.addOutput(outFile);
+		return sb.toString();
+	}
+
+	private boolean link(Target t, File outFile) throws Exception
+	{
+		if(!outFile.getParentFile().exists() && !outFile.getParentFile().mkdirs())
+		{
+			throw new Exception("Creating the directory \"" + outFile.getParentFile() + "\" failed!");
+		}
+
+		List<String> alCmd = getLinkFlags(t, outFile);
 		HashSet<File> hsClasspath = new HashSet<File>(); 
-		File fInputList = File.createTempFile("SourceList", ".list", outDir);
+		List<String> classpath = new LinkedList<String>();
+		File fInputList = File.createTempFile("SourceList", ".list", t.outDir);
 		FileWriter fw = new FileWriter(fInputList);
+		PackageObjectCache packageCache = getPackageObjectCache(t);
 		
 		// add all configured files and all files in the configured dirs
-		HashSet<File> hsFiles = getSourceFiles();
-		for(File f : hsFiles)
+		Map<File, String> hmFiles = getSourceFiles(t);
+		for(File f : hmFiles.keySet())
 		{
 			File baseDir;
-			String classPackage = ClassUtilities.getPackage(f);
+			String classPackage = hmFiles.get(f);
 			if(classPackage != null)
 			{
 				// f.toString() -> Windows: foo\bar\FooBar.java, Linux: foo/bar/FooBar.java
@@ -398,99 +1286,445 @@ public class NativeCompiler
 			{
 				baseDir = f.getParentFile();
 			}
-			if(baseDir != null && hsClasspath.add(baseDir)) alCmd.add("-I" + baseDir);
+			if(baseDir != null && hsClasspath.add(baseDir)) classpath.add("-I" + baseDir);
 
-			fw.write("\"" + f.toString().replaceAll("\\\\", "/") + "\"\n");
+			if(packageCache != null) packageCache.addSource(f, classPackage);
+			else                     fw.write("\"" + f.toString().replaceAll("\\\\", "/") + "\"\n");
 		}
 			
-		// add all compiled cached jars
-		File[] faJars = project.getJars();
-		for(File f : faJars)
+		// add all compiled jars
+		for(File f : project.getJars()) classpath.add("-I" + f.toString());
+		List<File> jarObjects = t.getJarObjects();
+		for(File f : jarObjects) fw.write("\"" + f.toString().replaceAll("\\\\", "/") + "\"\n");
+		alCmd.addAll(classpath);
+
+		// shared jars are loaded from the "lib" directory and need the libgcj symbols of the binary
+		boolean sharedJars = false;
+		for(File f : jarObjects)
 		{
-			alCmd.add("-I" + f.toString());
-
-			String objectType = project.getCompileCompleteJar(f) ? ".o" : ".a";
-			String fileName = f.getName();
-			fileName = fileName.substring(0, fileName.length()-4) + "-" + os + ".jar" + objectType;
-			
-			File cachedJar = new File(f.getParentFile(), fileName);
-			if(cachedJar.exists())
-			{
-				fw.write("\"" + cachedJar.toString().replaceAll("\\\\", "/") + "\"\n");
-			}
+			if(!f.getName().endsWith(".so")) continue;
+			installSharedLibrary(f, new File(outFile.getParentFile(), "lib"));
+			sharedJars = true;
+		}
+		if(sharedJars)
+		{
+			alCmd.add("-Wl,-E");
+			alCmd.add("-Wl,-rpath,$ORIGIN/lib");
 		}
 
-		// add all temporary objects and archives
-		File[] tmpFiles = outDir.listFiles();
-		for(File f : tmpFiles)
+		// compile the packages that changed, link all of them
+		if(packageCache != null && !compilePackages(t, packageCache, classpath, fw))
 		{
-			if(f.getName().endsWith(".o") || f.getName().endsWith(".a"))
-			{
-				fw.write("\"" + f.toString().replaceAll("\\\\", "/") + "\"\n");
-			}
+			fw.close();
+			return false;
 		}
 
+		if(t.iconObject != null) fw.write("\"" + t.iconObject.toString().replaceAll("\\\\", "/") + "\"\n");
+
 		fw.flush();
 		fw.close();
 		alCmd.add("@" + fInputList.toString());
 
 		// compile
 		String[] saCmd = alCmd.toArray(new String[0]);
-		if(!runCmd(saCmd, "main compilation step", true)) return false;
+		return runCmd(t, saCmd, "main compilation step", true, "link", outFile.getName());
+	}
 
-		if(!project.getOmitPacking())
+	/**
+	 * Copies the shared library of a jar into the "lib" directory next to the
+	 * binary and removes the libraries of former versions of the same jar.
+	 */
+	private void installSharedLibrary(File library, File libDir) throws IOException
+	{
+		if(!libDir.exists() && !libDir.mkdirs() && !libDir.exists()) throw new IOException("Unable to create \"" + libDir + "\"");
+
+		File fOut = new File(libDir, library.getName());
+		if(!fOut.exists() || fOut.length() != library.length()) FileUtilities.copyFile(library, fOut);
+
+		// foo-lin-0123456789abcdef.jar.so
+		String name = library.getName();
+		Pattern p = Pattern.compile(Pattern.quote(name.substring(0, name.length() - 23)) + "[0-9a-f]{16}\\.jar\\.so");
+		for(File f : libDir.listFiles())
+		{
+			if(!f.equals(fOut) && p.matcher(f.getName()).matches()) f.delete();
+		}
+	}
+
+	/**
+	 * Packs the binary with upx. The packed binary is cached by the hash of the linked
+	 * binary, so an unchanged binary isn't packed again. Every packing is added to the
+	 * packing history, which shows the time spent against the bytes saved per level.
+	 */
+	private boolean packBinary(Target t, File outFile) throws Exception
+	{
+		int level = project.getPackingLevel();
+		String levelName = (level == 0) ? "best" : String.valueOf(level);
+		File upx = t.toolchain.getTool("upx");
+
+		CompilationTimer.Phase phase = timer.start(t.os, "upx", outFile.getName());
+		phase.addDetail("level", levelName);
+		try
 		{
+			File packDir = (project.getCacheDir() == null) ? null : new File(project.getCacheDir(), "packed");
+			File cachedFile = null;
+			if(packDir != null)
+			{
+				String key = HashUtilities.hashString(HashUtilities.hashFile(outFile) + "|" + levelName + "|" +
+						upx.length() + "|" + upx.lastModified());
+				cachedFile = new File(packDir, outFile.getName() + "-" + key.substring(0, 16));
+				if(cachedFile.exists())
+				{
+					// only the content is replaced, so the binary stays executable
+					FileUtilities.copyFile(cachedFile, outFile);
+					t.log("- packing binary: unchanged, reusing the packed binary", false);
+					phase.addDetail("cached", "true");
+					return true;
+				}
+			}
+
 			String[] saCmdUpx =
 				{
-					(new File("upx")).getAbsolutePath(),
-					"--best",
+					upx.toString(),
+					(level == 0) ? "--best" : "-" + level,
 					"-q",
 					outFile.toString()
 				};
-			if(!runCmd(saCmdUpx, "packing binary", false)) return false;
+
+			long sizeBefore = outFile.length();
+			long startTime = System.currentTimeMillis();
+			if(!runCmd(t, saCmdUpx, "packing binary (level " + levelName + ")", false)) return false;
+			long time = System.currentTimeMillis() - startTime;
+			long sizeAfter = outFile.length();
+
+			t.log("- packed in " + time + "ms: " + sizeBefore + " -> " + sizeAfter + " bytes (" +
+					(sizeBefore - sizeAfter) + " bytes saved)", true);
+			phase.addDetail("bytes_before", Long.valueOf(sizeBefore));
+			phase.addDetail("bytes_after", Long.valueOf(sizeAfter));
+			phase.addDetail("bytes_saved", Long.valueOf(sizeBefore - sizeAfter));
+
+			if(packDir != null)
+			{
+				if(!packDir.exists() && !packDir.mkdirs() && !packDir.exists()) throw new IOException("Unable to create \"" + packDir + "\"");
+
+				// only the latest packed version of a binary is kept
+				String stalePattern = Pattern.quote(outFile.getName()) + "-[0-9a-f]{16}";
+				for(File f : packDir.listFiles())
+				{
+					if(f.getName().matches(stalePattern)) f.delete();
+				}
+
+				File tmpFile = File.createTempFile(outFile.getName(), ".tmp", packDir);
+				FileUtilities.copyFile(outFile, tmpFile);
+				FileUtilities.installFile(tmpFile, cachedFile, true);
+
+				logPackingHistory(t, new File(packDir, "history"), levelName, time, sizeBefore, sizeAfter);
+			}
+
+			return true;
+		} finally
+		{
+			phase.end();
+		}
+	}
+
+	/**
+	 * Returns the path of a tool of the target's toolchain. Logs if it doesn't exist.
+	 * 
+	 * @return The path or null if the tool doesn't exist.
+	 */
+	private String getTool(Target t, String name)
+	{
+		File tool = t.toolchain.getTool(name);
+		if(tool != null) return tool.toString();
+
+		t.log("Can't run the command, \"" + name + "\" doesn't exist" +
+				" in \"" + ((name.equals("upx")) ? FileUtilities.getInstallDir() : new File(t.compilerPath, "bin")) + "\"!", true);
+		return null;
+	}
+
+	/**
+	 * Adds the packing to the history and logs the average time and saving per level.
+	 * Synchronized since both targets use the same history.
+	 */
+	private synchronized void logPackingHistory(Target t, File historyFile, String levelName,
+			long time, long sizeBefore, long sizeAfter) throws IOException
+	{
+		FileWriter fw = new FileWriter(historyFile, true);
+		fw.write(levelName + "\t" + time + "\t" + sizeBefore + "\t" + sizeAfter + "\n");
+		fw.flush();
+		fw.close();
+
+		// level -> runs, time, size before, size after
+		Map<String, long[]> hmLevels = new TreeMap<String, long[]>();
+		BufferedReader br = new BufferedReader(new FileReader(historyFile));
+		for(String line = br.readLine(); line != null; line = br.readLine())
+		{
+			String[] sa = line.split("\t");
+			if(sa.length != 4) continue;
+
+			long[] la = hmLevels.get(sa[0]);
+			if(la == null) hmLevels.put(sa[0], la = new long[4]);
+			la[0]++;
+			for(int i=1; i<4; i++) la[i] += Long.parseLong(sa[i]);
+		}
+		br.close();
+
+		t.log("- packing history (level: runs, average time, average saving):", true);
+		for(String level : hmLevels.keySet())
+		{
+			long[] la = hmLevels.get(level);
+			long saving = (la[2] > 0) ? (la[2] - la[3]) * 100 / la[2] : 0;
+			t.log("  " + level + ": " + la[0] + ", " + (la[1] / la[0]) + "ms, " + saving + "%", true);
+		}
+	}
+
+	/**
+	 * Returns the cache for incremental compilation or null if everything
+	 * has to be compiled.
+	 */
+	private PackageObjectCache getPackageObjectCache(Target t)
+	{
+		if(!project.getIncrementalCompilation()) return null;
+
+		File cacheDir = project.getCacheDir();
+		if(cacheDir == null)
+		{
+			t.log("- incremental compilation requires a saved project, compiling everything", false);
+			return null;
+		}
+
+		return new PackageObjectCache(new File(cacheDir, "objects-" + t.os));
+	}
+
+	/**
+	 * Compiles every package whose object isn't up to date and adds the objects
+	 * of all packages to the input list.
+	 */
+	private boolean compilePackages(final Target t, final PackageObjectCache packageCache,
+			List<String> classpath, FileWriter fwInputList) throws Exception
+	{
+		final List<String> flags = new LinkedList<String>();
+		if(!project.getUseCni()) flags.add("-fjni");
+		if(!project.getDisableOptimisation()) flags.add("-O2");
+		flags.add("-Ilibs/" + t.os + "/gui/gui.jar");
+		for(String flag : project.getGcjFlags()) flags.add(flag);
+
+		// the used jars are part of the key since their class layouts are compiled in
+		List<String> keyParts = new LinkedList<String>(flags);
+		Collections.sort(keyParts);
+		for(File f : t.getJarObjects()) keyParts.add("jar=" + f.getName());
+		keyParts.add("compiler=" + t.toolchain.getIdentity());
+		packageCache.analyze(HashUtilities.hashString(t.os + "\n" + keyParts));
+
+		flags.addAll(classpath);
+		final File packageDir = new File(t.outDir, "packages");
+		if(!packageDir.mkdirs()) throw new IOException("Unable to create \"" + packageDir + "\"");
+
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		List<Future<File>> objectFiles = new LinkedList<Future<File>>();
+		String[] packages = packageCache.getPackages();
+		int compiledPackages = 0;
+
+		try
+		{
+			for(int i=0; i<packages.length; i++)
+			{
+				final String classPackage = packages[i];
+				final File objectFile = packageCache.getObjectFile(classPackage);
+				final File tmpObjectFile = new File(packageDir, i + ".o");
+				if(objectFile.exists())
+				{
+					// up to date, but keep the package order in the input list
+					FutureTask<File> cached = new FutureTask<File>(new Runnable() { public void run() { } }, objectFile);
+					cached.run();
+					objectFiles.add(cached);
+					continue;
+				}
+
+				compiledPackages++;
+				objectFiles.add(entryExecutor.submit(new Callable<File>()
+					{
+						public File call() throws Exception
+						{
+							if(failed.get()) return null;
+
+							File fSourceList = new File(packageDir, tmpObjectFile.getName() + ".list");
+							FileWriter fw = new FileWriter(fSourceList);
+							for(File f : packageCache.getSources(classPackage))
+							{
+								fw.write("\"" + f.toString().replaceAll("\\\\", "/") + "\"\n");
+							}
+							fw.flush();
+							fw.close();
+
+							LinkedList<String> alCmd = new LinkedList<String>();
+							alCmd.add(t.toolchain.getTool("gcj").toString());
+							alCmd.addAll(flags);
+							alCmd.add("-c"); alCmd.add("@" + fSourceList);
+							alCmd.add("-o"); alCmd.add(tmpObjectFile.toString());
+
+							String name = (classPackage.length() == 0) ? "default package" : classPackage;
+							if(!runCmd(t, alCmd.toArray(new String[0]), "compiling " + name, true, "package", name))
+							{
+								failed.set(true);
+								return null;
+							}
+
+							FileUtilities.installFile(tmpObjectFile, objectFile, true);
+							return objectFile;
+						}
+					}));
+			}
+
+			for(Future<File> future : objectFiles)
+			{
+				File objectFile = getResult(future);
+				if(objectFile == null) return false;
+				fwInputList.write("\"" + objectFile.toString().replaceAll("\\\\", "/") + "\"\n");
+			}
+		} finally
+		{
+			failed.set(true);
+			cancelTasks(objectFiles);
 		}
 
+		packageCache.removeUnusedObjects();
+		t.log("- " + compiledPackages + " of " + packages.length + " packages compiled", false);
 		return true;
 	}
 
-	private HashSet<File> getSourceFiles()
+	/**
+	 * Returns which classes of the jars are reachable from the main class, the
+	 * sources and the extra roots. Like the sources, this is only done once.
+	 */
+	private ClassReachability getReachability(Target t) throws Exception
+	{
+		synchronized(sourceLock)
+		{
+			if(reachability == null) reachability = computeReachability(t);
+			return reachability;
+		}
+	}
+
+	private ClassReachability computeReachability(Target t) throws Exception
+	{
+		Map<File, String> hmSources = getSourceFiles(t);
+		CompilationTimer.Phase phase = timer.start(null, "reachability", "analyse classes");
+
+		try
+		{
+			ClassReachability cr = new ClassReachability();
+			for(File f : project.getJars()) cr.addJar(f, project.getCompileCompleteJar(f));
+			for(File f : hmSources.keySet()) cr.addSource(f);
+			if(project.getMainClass() != null) cr.addRoot(project.getMainClass());
+			for(String root : project.getExtraRoots()) cr.addRoot(root);
+			cr.compute();
+			return cr;
+		} finally
+		{
+			phase.end();
+		}
+	}
+
+	/**
+	 * Returns all configured files and all sources in the configured directories
+	 * with their package (null for the default package), sorted by file. The
+	 * directories are walked and the packages resolved concurrently. Since all
+	 * targets use the same sources, this is only done once.
+	 */
+	private Map<File, String> getSourceFiles(Target t) throws Exception
+	{
+		// not synchronized on the compiler, the listing waits for the entry threads
+		synchronized(sourceLock)
+		{
+			if(sourceFiles == null) sourceFiles = listSourceFiles(t);
+			return sourceFiles;
+		}
+	}
+
+	private Map<File, String> listSourceFiles(Target t) throws Exception
 	{
-		HashSet<File> hs = new HashSet<File>();
+		long startTime = System.currentTimeMillis();
+		CompilationTimer.Phase phase = timer.start(null, "sources", "walk and resolve packages");
 
 		// files
-		File[] faFiles = project.getFiles();
-		for(File f : faFiles) hs.add(f);
+		Set<File> hsFiles = new TreeSet<File>(Arrays.asList(project.getFiles()));
 
-		// directories
-		LinkedList<File> llUnreadDirs = new LinkedList<File>();
-		File[] faDirs = project.getDirectories();
-		for(File f : faDirs) llUnreadDirs.add(f);
-		while(!llUnreadDirs.isEmpty())
+		// directories, one level after the other
+		List<File> llDirs = Arrays.asList(project.getDirectories());
+		while(!llDirs.isEmpty())
 		{
-			File[] fa = llUnreadDirs.removeFirst().listFiles();
-			for(File f : fa)
+			List<Future<File[]>> listings = new LinkedList<Future<File[]>>();
+			for(final File dir : llDirs)
 			{
-				if(f.isDirectory())
-				{
-					llUnreadDirs.add(f);
-				} else if(f.getName().endsWith(".java") || f.getName().endsWith(".class"))
+				listings.add(entryExecutor.submit(new Callable<File[]>()
+					{
+						public File[] call()
+						{
+							return dir.listFiles();
+						}
+					}));
+			}
+
+			llDirs = new LinkedList<File>();
+			for(Future<File[]> listing : listings)
+			{
+				File[] fa = getResult(listing);
+				if(fa == null) continue;
+
+				for(File f : fa)
 				{
-					hs.add(f);
-				}				
+					if(f.isDirectory())
+					{
+						llDirs.add(f);
+					} else if(f.getName().endsWith(".java") || f.getName().endsWith(".class"))
+					{
+						hsFiles.add(f);
+					}
+				}
 			}
 		}
+		long walkTime = System.currentTimeMillis() - startTime;
+
+		// packages, resolved in chunks to keep the overhead low
+		final ClassMetadataCache metadataCache = project.getMetadataCache();
+		final File[] faFiles = hsFiles.toArray(new File[0]);
+		final String[] saPackages = new String[faFiles.length];
+		int chunkSize = Math.max(16, faFiles.length / (getCompileThreads() * 4));
+		List<Future<Object>> resolvers = new LinkedList<Future<Object>>();
+		for(int i=0; i<faFiles.length; i+=chunkSize)
+		{
+			final int start = i;
+			final int end = Math.min(faFiles.length, i + chunkSize);
+			resolvers.add(entryExecutor.submit(new Callable<Object>()
+				{
+					public Object call() throws Exception
+					{
+						for(int j=start; j<end; j++) saPackages[j] = metadataCache.getPackage(faFiles[j]);
+						return null;
+					}
+				}));
+		}
+		for(Future<Object> resolver : resolvers) getResult(resolver);
+		metadataCache.save();
 
-		return hs;
+		Map<File, String> hmFiles = new TreeMap<File, String>();
+		for(int i=0; i<faFiles.length; i++) hmFiles.put(faFiles[i], saPackages[i]);
+		phase.end();
+
+		t.log("- found " + faFiles.length + " source files (directory walk: " + walkTime + "ms, packages: " +
+				(System.currentTimeMillis() - startTime - walkTime) + "ms)", false);
+		return Collections.unmodifiableMap(hmFiles);
 	}
 
-	private boolean addIcon() throws Exception
+	private boolean addIcon(Target t, File iconFile) throws Exception
 	{
-		File iconFile = project.getIconFile();
-
-		if(!project.getUseIcon() || iconFile == null) return true;
 		if(!iconFile.exists()) throw new IOException("Windows icon file doesn't exist:\n" + iconFile.toString());
 
-		File fTmp = File.createTempFile("icon", ".rc", outDir);
+		File dir = t.iconObject.getParentFile();
+		if(!dir.exists() && !dir.mkdirs() && !dir.exists()) throw new IOException("Unable to create \"" + dir + "\"");
+
+		File fTmp = File.createTempFile("icon", ".rc", t.outDir);
 		FileWriter fw = new FileWriter(fTmp);
 		fw.write("1 ICON \"" + iconFile.toString().replaceAll("\\\\", "/") + "\"\n");
 		fw.flush();
@@ -498,21 +1732,46 @@ public class NativeCompiler
 
 		String[] saCmd =
 			{
-				(new File(compilerPath, "bin/windres")).toString(),
+				t.toolchain.getTool("windres").toString(),
 				fTmp.toString(),
-				fTmp.toString()+".o"
+				t.iconObject.toString()
 			};
-		if(!runCmd(saCmd, "including icon", true)) return false;
+		if(!runCmd(t, saCmd, "including icon", true, "icon", iconFile.getName())) return false;
 
 		fTmp.delete();
 		return true;
 	}
 
-	private boolean runCmd(String[] cmd, String logLine, boolean logInput) throws Exception
+	/**
+	 * Like runCmd, but the command is timed as its own phase.
+	 */
+	private boolean runCmd(Target t, String[] cmd, String logLine, boolean logInput,
+			String phaseCategory, String phaseName) throws Exception
+	{
+		CompilationTimer.Phase phase = timer.start(t.os, phaseCategory, phaseName);
+		try
+		{
+			return runCmd(t, cmd, logLine, logInput);
+		} finally
+		{
+			phase.end();
+		}
+	}
+
+	private boolean runCmd(Target t, String[] cmd, String logLine, boolean logInput) throws Exception
+	{
+		return runCmd(t, cmd, logLine, logInput, false);
+	}
+
+	/**
+	 * @param quiet Whether neither the log line nor the command is logged, only
+	 *              its output. Used for the many commands that compile a jar.
+	 */
+	private boolean runCmd(final Target t, String[] cmd, String logLine, final boolean logInput, boolean quiet) throws Exception
 	{
-		if(!suppressCommandLogging) logger.log("- " + logLine, false);
+		if(!quiet) t.log("- " + logLine, false);
 
-		if(!suppressCommandLogging && project.getShowCommands())
+		if(!quiet && project.getShowCommands())
 		{
 			StringBuffer sb = new StringBuffer("[");
 			for(int i=0; i<cmd.length; i++)
@@ -521,66 +1780,109 @@ public class NativeCompiler
 				if(i+1 < cmd.length) sb.append("\n\t\t");
 			}
 			sb.append("]");
-			logger.log(sb.toString(), true);
+			t.log(sb.toString(), true);
 		}
 
-		if(!(new File(cmd[0])).exists() && !(new File(cmd[0]+".exe")).exists())
+		// registered before it runs, so cancel() either prevents or destroys it
+		ProcessEngine.Execution execution;
+		synchronized(runningProcesses)
 		{
-			logger.log("Can't run the command, \"" + cmd[0] + "\" doesn't exist!", true);
-			return false;
+			if(cancelled) return false;
+			execution = ProcessEngine.getProcessEngine().start(cmd, null, null, 0, new IProcessOutputListener()
+				{
+					public void lineRead(String line, boolean isError)
+					{
+						if(isError || logInput) t.log(line, true);
+					}
+				});
+			runningProcesses.add(execution);
+		}
+
+		try
+		{
+			return (execution.waitFor() == 0 && !cancelled);
+		} finally
+		{
+			synchronized(runningProcesses)
+			{
+				runningProcesses.remove(execution);
+			}
 		}
+	}
 
-		Process p = Runtime.getRuntime().exec(cmd);
-		if(logInput) log(p.getInputStream());
-		log(p.getErrorStream()).join();
-		return (p.waitFor() == 0);
+	private void notifyDone(boolean success)
+	{
+		if(notifier != null && project.getBeepWhenDone()) notifier.compilationDone(success);
 	}
 
-	private Thread log(final InputStream inputStream)
+
+	// --------------- per target state ---------------
+
+	/**
+	 * The state of a single target (Windows or Linux). Targets are compiled
+	 * concurrently, so nothing target specific may be kept in NativeCompiler.
+	 */
+	private class Target
 	{
-		Thread t = new Thread()
+		final String os, arch;
+		final File compilerPath;
+		final String logPrefix;
+
+		File outDir;
+		String javaLibPath;
+		private Map<File, File> hmJarObjects = new HashMap<File, File>(); // jar -> compiled jar
+		File iconObject;
+		Toolchain toolchain;
+		boolean guiFilesAdded;
+		WorkerPool workers;
+		int workerSlots;
+		boolean workersConnected;
+
+		Target(String os, boolean tagLogs)
 		{
-			public void run()
-			{
-				try
-				{
-					BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-					String line;
+			this.os = os;
+			arch = (os.equals("win")) ? "Windows" : "Linux";
+			logPrefix = (tagLogs) ? "[" + os + "] " : "";
+			javaLibPath = project.getJavaLibPath();
+
+			String sCompilerPath = (os.equals("win")) ?
+					SettingsMemory.getSettingsMemory().getWindowsCompilerPath() :
+					SettingsMemory.getSettingsMemory().getLinuxCompilerPath();
+			compilerPath = (sCompilerPath == null) ? null : new File(sCompilerPath);
+		}
 
-					while((line = br.readLine()) != null) logger.log(line, true);
+		synchronized void addJarObject(File jar, File jarObject)
+		{
+			hmJarObjects.put(jar, jarObject);
+		}
 
-					br.close();
-				} catch(Exception ex)
-				{
-					ex.printStackTrace();
-				}
+		/**
+		 * Returns the compiled jars in the order of the jars. The jars are compiled
+		 * concurrently, but the link order mustn't depend on that.
+		 */
+		synchronized List<File> getJarObjects()
+		{
+			List<File> list = new LinkedList<File>();
+			for(File jar : project.getJars())
+			{
+				File jarObject = hmJarObjects.get(jar);
+				if(jarObject != null) list.add(jarObject);
 			}
-		};
-		t.start();
-		return t;
-	}
-
-	private void beep(final boolean error)
-	{
-		if(!project.getBeepWhenDone()) return;
+			return list;
+		}
 
-		// There is no dispatcher in the AutoCompiler. So this beep
-		// has to be called synchronously to work there too.
-		Display.getDefault().syncExec(new Runnable()
-				{
-					public void run()
-					{
-						Display.getDefault().beep();
-						if(error)
-						{
-							try
-							{
-								Thread.sleep(150);
-							} catch (Exception e) { }
+		void log(String s, boolean indent)
+		{
+			if(logPrefix.length() == 0)
+			{
+				logger.log(s, indent);
+				return;
+			}
 
-							Display.getDefault().beep();
-						}
-					}
-				});
+			// keep leading line breaks in front of the tag
+			int i = 0;
+			while(i < s.length() && s.charAt(i) == '\n') i++;
+			logger.log(s.substring(0, i) + logPrefix + s.substring(i), indent);
+		}
 	}
 }
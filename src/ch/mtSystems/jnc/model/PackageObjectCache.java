@@ -0,0 +1,210 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ch.mtSystems.jnc.model.utilities.FileUtilities;
+import ch.mtSystems.jnc.model.utilities.HashUtilities;
+
+
+/**
+ * PackageObjectCache keeps one object per package of the application sources.
+ * Only packages whose sources (or the sources of packages they use, directly or
+ * indirectly) changed need to be recompiled. The objects are stored as
+ * package-0123456789abcdef.o in the cache directory.
+ */
+public class PackageObjectCache
+{
+	private static final Pattern pSourceName = Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*\\.\\*|[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)+");
+	private static final Pattern pClassName = Pattern.compile("[A-Za-z_$][\\w$]*(/[A-Za-z_$][\\w$]*)+");
+
+	private File cacheDir;
+	private Map<String, List<File>> hmPackages = new TreeMap<String, List<File>>();
+	private Map<String, String> hmKeys = new HashMap<String, String>();
+	private Set<File> hsUsedObjects = new HashSet<File>();
+
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param cacheDir Where the objects are stored. Is created if needed.
+	 */
+	public PackageObjectCache(File cacheDir)
+	{
+		this.cacheDir = cacheDir;
+	}
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Adds a source (.java or .class).
+	 * 
+	 * @param classPackage The package of the source, null for the default package.
+	 */
+	public void addSource(File f, String classPackage)
+	{
+		if(classPackage == null) classPackage = "";
+
+		List<File> files = hmPackages.get(classPackage);
+		if(files == null)
+		{
+			files = new LinkedList<File>();
+			hmPackages.put(classPackage, files);
+		}
+		files.add(f);
+	}
+
+	/**
+	 * Reads all sources and calculates the key of each package. Must be called
+	 * after all sources have been added.
+	 * 
+	 * @param configurationKey Everything besides the sources that influences
+	 *                         the objects (flags, compiler, ...).
+	 */
+	public void analyze(String configurationKey) throws IOException
+	{
+		if(!cacheDir.exists() && !cacheDir.mkdirs() && !cacheDir.exists())
+		{
+			throw new IOException("Unable to create \"" + cacheDir + "\"");
+		}
+
+		Map<String, String> hmSourceHashes = new HashMap<String, String>();
+		Map<String, Set<String>> hmDependencies = new HashMap<String, Set<String>>();
+
+		for(String classPackage : hmPackages.keySet())
+		{
+			List<File> files = hmPackages.get(classPackage);
+			File[] fa = files.toArray(new File[0]);
+			Arrays.sort(fa);
+
+			StringBuffer sb = new StringBuffer();
+			Set<String> dependencies = new HashSet<String>();
+			for(File f : fa)
+			{
+				byte[] ba = FileUtilities.readFile(f);
+				sb.append(f.getName()).append('=').append(HashUtilities.hashBytes(ba)).append('\n');
+				addDependencies(ba, f.getName().endsWith(".class"), dependencies);
+			}
+
+			hmSourceHashes.put(classPackage, HashUtilities.hashString(sb.toString()));
+			hmDependencies.put(classPackage, dependencies);
+		}
+
+		// An object depends on the class layouts of all used packages. So the key
+		// contains the sources of all packages that are used directly or indirectly.
+		for(String classPackage : hmPackages.keySet())
+		{
+			Set<String> closure = new TreeSet<String>();
+			LinkedList<String> llUnvisited = new LinkedList<String>();
+			llUnvisited.add(classPackage);
+			while(!llUnvisited.isEmpty())
+			{
+				String cur = llUnvisited.removeFirst();
+				if(!closure.add(cur)) continue;
+				llUnvisited.addAll(hmDependencies.get(cur));
+			}
+
+			StringBuffer sb = new StringBuffer("configuration=" + configurationKey + "\n");
+			for(String dependency : closure)
+			{
+				sb.append(dependency).append('=').append(hmSourceHashes.get(dependency)).append('\n');
+			}
+			hmKeys.put(classPackage, HashUtilities.hashString(sb.toString()));
+		}
+	}
+
+	/**
+	 * Returns all packages, sorted. The default package is "".
+	 */
+	public String[] getPackages()
+	{
+		return hmPackages.keySet().toArray(new String[0]);
+	}
+
+	public List<File> getSources(String classPackage)
+	{
+		return hmPackages.get(classPackage);
+	}
+
+	/**
+	 * Returns the object for the package. If it exists, it is up to date.
+	 */
+	public File getObjectFile(String classPackage)
+	{
+		String name = (classPackage.length() == 0) ? "default" : classPackage;
+		File f = new File(cacheDir, name + "-" + hmKeys.get(classPackage).substring(0, 16) + ".o");
+		hsUsedObjects.add(f);
+		return f;
+	}
+
+	/**
+	 * Deletes all objects that haven't been requested by getObjectFile.
+	 */
+	public void removeUnusedObjects()
+	{
+		for(File f : cacheDir.listFiles())
+		{
+			if(!hsUsedObjects.contains(f)) f.delete();
+		}
+	}
+
+
+	// --------------- private methods ---------------
+
+	/**
+	 * Adds all project packages that are referenced in the source. Other packages
+	 * can only be used by an import or a qualified name. Both contain the package
+	 * name. Classes contain them in the constant pool (with '/' as separator).
+	 * Finding a bit too much only causes needless recompilations.
+	 */
+	private void addDependencies(byte[] ba, boolean isClass, Set<String> dependencies) throws IOException
+	{
+		String s = new String(ba, "ISO-8859-1");
+		char separator = isClass ? '/' : '.';
+		Matcher m = (isClass ? pClassName : pSourceName).matcher(s);
+
+		while(m.find())
+		{
+			String name = m.group();
+			if(name.endsWith(".*")) name = name.substring(0, name.length() - 2); // import foo.*;
+			for(int i = name.indexOf(separator); i > -1; i = name.indexOf(separator, i+1))
+			{
+				String candidate = name.substring(0, i).replace('/', '.');
+				if(hmPackages.containsKey(candidate)) dependencies.add(candidate);
+			}
+			String candidate = name.replace('/', '.');
+			if(hmPackages.containsKey(candidate)) dependencies.add(candidate);
+		}
+	}
+}
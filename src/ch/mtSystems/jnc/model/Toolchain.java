@@ -0,0 +1,334 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ch.mtSystems.jnc.model.utilities.FileUtilities;
+import ch.mtSystems.jnc.model.utilities.HashUtilities;
+import ch.mtSystems.jnc.model.utilities.IProcessOutputListener;
+import ch.mtSystems.jnc.model.utilities.ProcessEngine;
+
+
+/**
+ * Toolchain describes a compiler directory: where gcj, gcc, ar, windres and upx
+ * are, their versions and which gcj flags are supported. It's resolved once per
+ * session and kept in ~/.JNC.toolchains for the next ones. A kept description is
+ * resolved again if the modification date of the compiler directory or its bin
+ * directory, or the size or modification date of a tool changed.
+ */
+public class Toolchain
+{
+	private static final File CACHE_DIR = new File(System.getProperty("user.home"), ".JNC.toolchains");
+	private static final String[] TOOLS = { "gcj", "gcc", "ar", "windres" };
+	private static Map<File, Toolchain> hmToolchains = new HashMap<File, Toolchain>();
+
+	private File dir, cacheFile;
+	private String stamp;
+	private String version = "unknown", machine = "unknown";
+	private Map<String, Tool> hmTools = new TreeMap<String, Tool>();
+	private Map<String, Boolean> hmFlags = new TreeMap<String, Boolean>();
+
+
+	private Toolchain(File dir)
+	{
+		this.dir = dir;
+		cacheFile = new File(CACHE_DIR, HashUtilities.hashString(dir.toString()).substring(0, 16));
+	}
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Returns the description of the compiler directory. It's only resolved again
+	 * if the directory changed since.
+	 */
+	public static synchronized Toolchain getToolchain(File dir) throws Exception
+	{
+		dir = dir.getAbsoluteFile();
+		Toolchain toolchain = hmToolchains.get(dir);
+		if(toolchain != null && toolchain.stamp.equals(getStamp(dir))) return toolchain;
+
+		toolchain = new Toolchain(dir);
+		toolchain.resolve();
+		hmToolchains.put(dir, toolchain);
+		return toolchain;
+	}
+
+	public File getDir()
+	{
+		return dir;
+	}
+
+	/**
+	 * Returns the tool ("gcj", "gcc", "ar", "windres" or "upx").
+	 * 
+	 * @return The file or null if it doesn't exist.
+	 */
+	public File getTool(String name)
+	{
+		Tool tool = hmTools.get(name);
+		return (tool == null) ? null : tool.file;
+	}
+
+	/**
+	 * Returns the first line "--version" printed for the tool or null if it doesn't exist.
+	 */
+	public String getToolVersion(String name)
+	{
+		Tool tool = hmTools.get(name);
+		return (tool == null || tool.file == null) ? null : tool.version;
+	}
+
+	/**
+	 * Returns the version of gcj, e.g. "4.3.0".
+	 */
+	public String getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Returns what gcj compiles for, e.g. "i686-pc-mingw32".
+	 */
+	public String getMachine()
+	{
+		return machine;
+	}
+
+	/**
+	 * Identifies the compiler by its version and binary. Used for the cache keys.
+	 */
+	public String getIdentity()
+	{
+		Tool gcj = hmTools.get("gcj");
+		if(gcj.file == null) return "unknown"; // will fail when used anyway
+		return version + "|" + gcj.length + "|" + gcj.modified;
+	}
+
+	/**
+	 * Tests if gcj accepts the flag by compiling a class with it and, since the
+	 * compilation ignores link flags, by linking it. If linking fails without the
+	 * flag as well, only the compilation counts. The result is kept, so every flag
+	 * is only tested once.
+	 */
+	public synchronized boolean supportsFlag(String flag) throws Exception
+	{
+		Boolean supported = hmFlags.get(flag);
+		if(supported != null) return supported.booleanValue();
+
+		File gcj = getTool("gcj");
+		if(gcj == null) return false;
+
+		File tmpDir = FileUtilities.createTempDir("JNCTemp", ".probe");
+		try
+		{
+			File source = new File(tmpDir, "Probe.java");
+			FileWriter fw = new FileWriter(source);
+			fw.write("class Probe { public static void main(String[] args) { } }\n");
+			fw.flush();
+			fw.close();
+
+			String[] saCompile = { gcj.toString(), flag, "-c", source.toString(), "-o", new File(tmpDir, "Probe.o").toString() };
+			supported = Boolean.valueOf(runProbe(saCompile, tmpDir) &&
+					(runProbe(getLinkProbe(gcj, flag, source), tmpDir) || !runProbe(getLinkProbe(gcj, null, source), tmpDir)));
+		} finally
+		{
+			FileUtilities.deleteDirAsync(tmpDir);
+		}
+
+		hmFlags.put(flag, supported);
+		save();
+		return supported.booleanValue();
+	}
+
+
+	// --------------- private methods ---------------
+
+	private static String[] getLinkProbe(File gcj, String flag, File source)
+	{
+		String binary = new File(source.getParentFile(), "probe").toString();
+		return (flag == null) ?
+				new String[] { gcj.toString(), "--main=Probe", source.toString(), "-o", binary } :
+				new String[] { gcj.toString(), flag, "--main=Probe", source.toString(), "-o", binary };
+	}
+
+	private static boolean runProbe(String[] cmd, File dir) throws Exception
+	{
+		return ProcessEngine.getProcessEngine().run(cmd, dir, null, 0, null) == 0;
+	}
+
+	private static String getStamp(File dir)
+	{
+		return dir.lastModified() + "|" + new File(dir, "bin").lastModified();
+	}
+
+	private void resolve() throws Exception
+	{
+		stamp = getStamp(dir);
+		for(String name : TOOLS) hmTools.put(name, new Tool(new File(dir, "bin/" + name)));
+		hmTools.put("upx", new Tool(new File(FileUtilities.getInstallDir(), "upx")));
+		if(load()) return;
+
+		hmFlags.clear();
+		Tool gcj = hmTools.get("gcj");
+		if(gcj.file != null)
+		{
+			version = runTool(gcj.file, "-dumpversion");
+			machine = runTool(gcj.file, "-dumpmachine");
+		}
+
+		for(Tool tool : hmTools.values())
+		{
+			if(tool.file != null) tool.version = runTool(tool.file, "--version");
+		}
+
+		save();
+	}
+
+	/**
+	 * Returns the first line printed by the tool.
+	 */
+	private static String runTool(File tool, String arg) throws Exception
+	{
+		final StringBuffer sb = new StringBuffer();
+		ProcessEngine.getProcessEngine().run(new String[] { tool.toString(), arg }, null, null, 0,
+			new IProcessOutputListener()
+			{
+				public void lineRead(String line, boolean isError)
+				{
+					if(!isError && sb.length() == 0) sb.append(line.trim());
+				}
+			});
+		return (sb.length() == 0) ? "unknown" : sb.toString();
+	}
+
+	/**
+	 * Reads the kept description. It's only used if the directory and all tools
+	 * are unchanged.
+	 * 
+	 * @return If the description has been read.
+	 */
+	private boolean load()
+	{
+		if(!cacheFile.exists()) return false;
+
+		try
+		{
+			Map<String, Tool> hmKept = new TreeMap<String, Tool>();
+			Map<String, Boolean> hmKeptFlags = new TreeMap<String, Boolean>();
+			String keptVersion = null, keptMachine = null;
+			boolean sameDir = false;
+
+			BufferedReader br = new BufferedReader(new FileReader(cacheFile));
+			try
+			{
+				for(String line = br.readLine(); line != null; line = br.readLine())
+				{
+					String[] sa = line.split("=", 2);
+					if(sa.length != 2) continue;
+
+					if(sa[0].equals("dir"))           sameDir = sa[1].equals(dir + "|" + stamp);
+					else if(sa[0].equals("version"))  keptVersion = sa[1];
+					else if(sa[0].equals("machine"))  keptMachine = sa[1];
+					else if(sa[0].equals("flag"))     hmKeptFlags.put(sa[1].substring(1), Boolean.valueOf(sa[1].charAt(0) == '+'));
+					else if(sa[0].equals("tool"))
+					{
+						String[] saTool = sa[1].split("\\|", 5);
+						if(saTool.length != 5) return false;
+
+						Tool tool = hmTools.get(saTool[0]);
+						if(tool == null || !tool.getSignature().equals(saTool[1] + "|" + saTool[2] + "|" + saTool[3])) return false;
+						hmKept.put(saTool[0], tool);
+						tool.keptVersion = saTool[4];
+					}
+				}
+			} finally
+			{
+				br.close();
+			}
+
+			if(!sameDir || keptVersion == null || keptMachine == null || !hmKept.keySet().equals(hmTools.keySet())) return false;
+
+			for(Tool tool : hmTools.values()) tool.version = tool.keptVersion;
+			version = keptVersion;
+			machine = keptMachine;
+			hmFlags.putAll(hmKeptFlags);
+			return true;
+		} catch(Exception ex)
+		{
+			// resolved again
+			return false;
+		}
+	}
+
+	private void save() throws IOException
+	{
+		if(!CACHE_DIR.exists() && !CACHE_DIR.mkdirs() && !CACHE_DIR.exists()) throw new IOException("Unable to create \"" + CACHE_DIR + "\"");
+
+		File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", CACHE_DIR);
+		FileWriter fw = new FileWriter(tmpFile);
+		fw.write("dir=" + dir + "|" + stamp + "\n");
+		fw.write("version=" + version + "\n");
+		fw.write("machine=" + machine + "\n");
+		for(String name : hmTools.keySet())
+		{
+			Tool tool = hmTools.get(name);
+			fw.write("tool=" + name + "|" + tool.getSignature() + "|" + ((tool.version == null) ? "" : tool.version) + "\n");
+		}
+		for(String flag : hmFlags.keySet()) fw.write("flag=" + ((hmFlags.get(flag).booleanValue()) ? "+" : "-") + flag + "\n");
+		fw.flush();
+		fw.close();
+
+		FileUtilities.installFile(tmpFile, cacheFile, false);
+	}
+
+
+	// --------------- inner classes ---------------
+
+	private static class Tool
+	{
+		File file; // null if it doesn't exist
+		long length, modified;
+		String version, keptVersion;
+
+		Tool(File f)
+		{
+			if(!f.exists()) f = new File(f + ".exe");
+			if(!f.exists()) return;
+
+			file = f;
+			length = f.length();
+			modified = f.lastModified();
+		}
+
+		String getSignature()
+		{
+			return (file == null) ? "||" : file + "|" + length + "|" + modified;
+		}
+	}
+}
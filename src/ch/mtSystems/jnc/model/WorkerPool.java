@@ -0,0 +1,373 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * WorkerPool distributes the compilation of jar entries to worker processes
+ * (JNC -worker), on this or other hosts. A worker announces how many entries it
+ * compiles concurrently, one connection is opened per slot.<br>
+ * <br>
+ * The protocol (DataInputStream/DataOutputStream) of a connection:
+ * <ul>
+ * <li>PROTOCOL and the target os, the worker answers with "ok version slots"
+ * (version: gcj -dumpversion) or "error message".</li>
+ * <li>The classpath jars: their count, then name and hash per jar. The worker
+ * answers for every jar if it's missing, the content of a missing jar follows
+ * (see writeFile). A worker keeps the jars, so they're only shipped once.</li>
+ * <li>Any number of jobs: JOB, the entry name, if the jars are needed as
+ * classpath, the gcj arguments and the entry content. The worker answers if the
+ * compilation succeeded, the output of gcj and the object.</li>
+ * <li>BYE</li>
+ * </ul>
+ */
+public class WorkerPool
+{
+	public final static int DEFAULT_PORT = 7392;
+	public final static String PROTOCOL = "JNC-WORKER 1";
+	public final static String JOB = "job";
+	public final static String BYE = "bye";
+
+	private final static int CONNECT_TIMEOUT = 5000;
+	private final static int HANDSHAKE_TIMEOUT = 60000; // the worker might store the jars
+	private final static int JOB_TIMEOUT = 120000;      // plus JOB_TIMEOUT_PER_KB per kb of the entry
+	private final static int JOB_TIMEOUT_PER_KB = 100;
+
+	private String os;
+	private String version;
+	private File[] jars;
+	private List<Connection> connections = new LinkedList<Connection>();
+	private ConcurrentLinkedQueue<Connection> idleConnections = new ConcurrentLinkedQueue<Connection>();
+	private List<String> problems = new LinkedList<String>();
+
+
+	/**
+	 * @param os The target os, "win" or "lin".
+	 * @param version The version of the local compiler. Only workers with the same version are used.
+	 * @param jars The jars that are the classpath of the jobs.
+	 */
+	public WorkerPool(String os, String version, File[] jars)
+	{
+		this.os = os;
+		this.version = version;
+		this.jars = jars;
+	}
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Connects to the workers. Workers which aren't available or incompatible
+	 * are skipped, see getProblems.
+	 * 
+	 * @param addresses "host" or "host:port".
+	 * @return The number of slots (connections) available.
+	 */
+	public int connect(String[] addresses)
+	{
+		for(String address : addresses)
+		{
+			address = address.trim();
+			if(address.length() == 0) continue;
+
+			try
+			{
+				int index = address.lastIndexOf(':');
+				String host = (index < 0) ? address : address.substring(0, index);
+				int port = (index < 0) ? DEFAULT_PORT : Integer.parseInt(address.substring(index + 1));
+
+				Connection connection = new Connection(host, port);
+				addConnection(connection);
+
+				for(int i=1; i<connection.slots; i++) addConnection(new Connection(host, port));
+			} catch(Exception ex)
+			{
+				synchronized(problems) { problems.add(address + ": " + ex.getMessage()); }
+			}
+		}
+
+		return getSlots();
+	}
+
+	/**
+	 * Returns why workers couldn't be used.
+	 */
+	public List<String> getProblems()
+	{
+		synchronized(problems) { return new LinkedList<String>(problems); }
+	}
+
+	public synchronized int getSlots()
+	{
+		return connections.size();
+	}
+
+	/**
+	 * Returns an idle connection.
+	 * 
+	 * @return The connection or null if all are busy.
+	 */
+	public Connection poll()
+	{
+		return idleConnections.poll();
+	}
+
+	/**
+	 * Returns the connection to the pool. A failed connection is closed instead.
+	 */
+	public void release(Connection connection, boolean failed)
+	{
+		if(!failed)
+		{
+			idleConnections.add(connection);
+			return;
+		}
+
+		synchronized(this) { connections.remove(connection); }
+		connection.close(false);
+	}
+
+	/**
+	 * Closes all connections.
+	 * 
+	 * @param graceful Tells the workers that we're done. Otherwise the sockets are just closed
+	 * (e.g. to abort running jobs).
+	 */
+	public void close(boolean graceful)
+	{
+		List<Connection> list;
+		synchronized(this)
+		{
+			list = new LinkedList<Connection>(connections);
+			connections.clear();
+		}
+
+		idleConnections.clear();
+		for(Connection connection : list) connection.close(graceful);
+	}
+
+
+	/**
+	 * Writes the length and the content of the file.
+	 */
+	public static void writeFile(DataOutputStream out, File f) throws IOException
+	{
+		out.writeLong(f.length());
+		InputStream in = new FileInputStream(f);
+
+		try
+		{
+			byte[] ba = new byte[64 * 1024];
+			for(int len = in.read(ba); len > -1; len = in.read(ba)) out.write(ba, 0, len);
+		} finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads what has been written by writeFile into the file.
+	 */
+	public static void readFile(DataInputStream in, File f) throws IOException
+	{
+		long length = in.readLong();
+		OutputStream out = new FileOutputStream(f);
+
+		try
+		{
+			byte[] ba = new byte[64 * 1024];
+			while(length > 0)
+			{
+				int len = in.read(ba, 0, (int)Math.min(ba.length, length));
+				if(len < 0) throw new IOException("Connection closed");
+				out.write(ba, 0, len);
+				length -= len;
+			}
+		} finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a string that might be longer than writeUTF allows.
+	 */
+	public static void writeText(DataOutputStream out, String s) throws IOException
+	{
+		byte[] ba = s.getBytes("UTF-8");
+		out.writeInt(ba.length);
+		out.write(ba);
+	}
+
+	public static String readText(DataInputStream in) throws IOException
+	{
+		byte[] ba = new byte[in.readInt()];
+		in.readFully(ba);
+		return new String(ba, "UTF-8");
+	}
+
+
+	// --------------- private methods ---------------
+
+	private synchronized void addConnection(Connection connection)
+	{
+		connections.add(connection);
+		idleConnections.add(connection);
+	}
+
+
+	// --------------- inner classes ---------------
+
+	/**
+	 * A connection to a worker. Runs one job at a time.
+	 */
+	public class Connection
+	{
+		private String name;
+		private Socket socket;
+		private DataInputStream in;
+		private DataOutputStream out;
+		private int slots;
+
+		private Connection(String host, int port) throws IOException
+		{
+			name = host + ":" + port;
+			socket = new Socket();
+
+			try
+			{
+				socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+				out.writeUTF(PROTOCOL);
+				out.writeUTF(os);
+				out.flush();
+
+				String[] sa = in.readUTF().split(" ", 3);
+				if(sa[0].equals("error")) throw new IOException((sa.length > 1) ? sa[1] + " " + sa[2] : "unknown error");
+				if(sa.length != 3 || !sa[0].equals("ok")) throw new IOException("not a JNC worker");
+				if(!sa[1].equals(version)) throw new IOException("compiler version " + sa[1] + " instead of " + version);
+				slots = Math.max(1, Integer.parseInt(sa[2]));
+
+				// ship the jars the worker doesn't have yet
+				out.writeInt(jars.length);
+				for(File jar : jars)
+				{
+					out.writeUTF(jar.getName());
+					out.writeUTF(JarCache.getJarHash(jar));
+					out.flush();
+					if(in.readBoolean()) writeFile(out, jar);
+				}
+				out.flush();
+			} catch(IOException ex)
+			{
+				socket.close();
+				throw ex;
+			}
+		}
+
+		/**
+		 * Compiles the jar entry on the worker. The entry is passed from memory,
+		 * it doesn't need to be extracted.
+		 * 
+		 * @param args The arguments for gcj, without input and output.
+		 * @param classpath If the jars are added as classpath.
+		 * @param output Gets the output of gcj.
+		 * @return If the compilation succeeded.
+		 * @throws IOException If the connection failed or the worker didn't answer in time
+		 *                     (e.g. stuck or gone). The entry needs to be compiled elsewhere.
+		 */
+		public boolean compile(String entryName, byte[] entryData, List<String> args, boolean classpath,
+				File objectFile, StringBuffer output) throws IOException
+		{
+			int timeout = JOB_TIMEOUT + (entryData.length / 1024) * JOB_TIMEOUT_PER_KB;
+			socket.setSoTimeout(timeout);
+
+			out.writeUTF(JOB);
+			out.writeUTF(entryName);
+			out.writeBoolean(classpath);
+			out.writeInt(args.size());
+			for(String arg : args) writeText(out, arg);
+			out.writeLong(entryData.length);
+			out.write(entryData);
+			out.flush();
+
+			try
+			{
+				boolean ok = in.readBoolean();
+				output.append(readText(in));
+				if(ok) readFile(in, objectFile);
+				return ok;
+			} catch(SocketTimeoutException ex)
+			{
+				throw new IOException("no answer within " + (timeout / 1000) + "s");
+			}
+		}
+
+		public String toString()
+		{
+			return name;
+		}
+
+		private void close(boolean graceful)
+		{
+			try
+			{
+				if(graceful)
+				{
+					out.writeUTF(BYE);
+					out.flush();
+				}
+			} catch(IOException ex)
+			{
+				// closed anyway
+			} finally
+			{
+				try
+				{
+					socket.close();
+				} catch(IOException ex)
+				{
+					// ignore
+				}
+			}
+		}
+	}
+}
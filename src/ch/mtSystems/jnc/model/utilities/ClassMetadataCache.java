@@ -0,0 +1,187 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model.utilities;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * ClassMetadataCache remembers the package of project inputs (.java and .class).
+ * An entry is valid as long as the modification time and size of the file are
+ * unchanged. So unchanged files never need to be read again, not even in the next
+ * session: The cache is loaded lazily from and saved to a file.
+ */
+public class ClassMetadataCache
+{
+	private static Map<File, ClassMetadataCache> hmCaches = new HashMap<File, ClassMetadataCache>();
+	private static ClassMetadataCache memoryCache;
+
+	private File cacheFile;
+	private Map<String, Entry> hmEntries;
+	private boolean dirty;
+
+
+	/**
+	 * Returns the cache for the given file.
+	 * 
+	 * @param cacheFile The file to load from and save to. null for a cache that is only kept in memory.
+	 */
+	public static synchronized ClassMetadataCache getCache(File cacheFile)
+	{
+		if(cacheFile == null)
+		{
+			if(memoryCache == null) memoryCache = new ClassMetadataCache(null);
+			return memoryCache;
+		}
+
+		cacheFile = cacheFile.getAbsoluteFile();
+		ClassMetadataCache cache = hmCaches.get(cacheFile);
+		if(cache == null)
+		{
+			cache = new ClassMetadataCache(cacheFile);
+			hmCaches.put(cacheFile, cache);
+		}
+		return cache;
+	}
+
+	private ClassMetadataCache(File cacheFile)
+	{
+		this.cacheFile = cacheFile;
+	}
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Like ClassUtilities.getPackage, but only reads the file if it changed.
+	 */
+	public String getPackage(File f) throws IOException
+	{
+		String path = f.getAbsolutePath();
+		long lastModified = f.lastModified();
+		long length = f.length();
+
+		synchronized(this)
+		{
+			if(hmEntries == null) load();
+
+			Entry entry = hmEntries.get(path);
+			if(entry != null && entry.lastModified == lastModified && entry.length == length) return entry.classPackage;
+		}
+
+		String classPackage = ClassUtilities.getPackage(f);
+
+		synchronized(this)
+		{
+			hmEntries.put(path, new Entry(lastModified, length, classPackage));
+			dirty = true;
+		}
+
+		return classPackage;
+	}
+
+	/**
+	 * Like ClassUtilities.getClassName, but only reads the file if it changed.
+	 */
+	public String getClassName(File f) throws IOException
+	{
+		String fileName = f.getName();
+		String simpleClassName = fileName.substring(0, fileName.lastIndexOf('.'));
+		String thePackage = getPackage(f);
+
+		return (thePackage == null) ? simpleClassName : thePackage + "." + simpleClassName;
+	}
+
+	/**
+	 * Writes the cache to its file if something changed. Entries of files that
+	 * no longer exist are dropped.
+	 */
+	public synchronized void save() throws IOException
+	{
+		if(cacheFile == null || !dirty) return;
+
+		File dir = cacheFile.getParentFile();
+		if(!dir.exists() && !dir.mkdirs() && !dir.exists()) throw new IOException("Unable to create \"" + dir + "\"");
+
+		File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+		FileWriter fw = new FileWriter(tmpFile);
+		for(String path : hmEntries.keySet())
+		{
+			if(!(new File(path)).exists()) continue;
+
+			Entry entry = hmEntries.get(path);
+			fw.write(entry.lastModified + "\t" + entry.length + "\t" +
+					((entry.classPackage == null) ? "" : entry.classPackage) + "\t" + path + "\n");
+		}
+		fw.flush();
+		fw.close();
+
+		FileUtilities.installFile(tmpFile, cacheFile, false);
+		dirty = false;
+	}
+
+
+	// --------------- private methods ---------------
+
+	private void load()
+	{
+		hmEntries = new HashMap<String, Entry>();
+		if(cacheFile == null || !cacheFile.exists()) return;
+
+		try
+		{
+			BufferedReader br = new BufferedReader(new FileReader(cacheFile));
+			for(String line = br.readLine(); line != null; line = br.readLine())
+			{
+				String[] sa = line.split("\t", 4);
+				if(sa.length != 4) continue;
+
+				String classPackage = (sa[2].length() == 0) ? null : sa[2];
+				hmEntries.put(sa[3], new Entry(Long.parseLong(sa[0]), Long.parseLong(sa[1]), classPackage));
+			}
+			br.close();
+		} catch(Exception ex)
+		{
+			// a broken cache is just rebuilt
+			ex.printStackTrace();
+			hmEntries.clear();
+		}
+	}
+
+
+	private static class Entry
+	{
+		final long lastModified, length;
+		final String classPackage;
+
+		Entry(long lastModified, long length, String classPackage)
+		{
+			this.lastModified = lastModified;
+			this.length = length;
+			this.classPackage = classPackage;
+		}
+	}
+}
@@ -19,10 +19,13 @@
 
 package ch.mtSystems.jnc.model.utilities;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
 
 import org.apache.bcel.classfile.ClassParser;
 import org.apache.bcel.classfile.JavaClass;
@@ -30,11 +33,6 @@ import org.apache.bcel.classfile.JavaClass;
 
 public class ClassUtilities
 {
-	private static final Pattern pComment1 = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
-	private static final Pattern pComment2 = Pattern.compile("//.*");
-	private static final Pattern pPackage = Pattern.compile("package\\s+([^;]+);");
-
-
 	/**
 	 * For Test.java or Test.class in package ch.foo.bar, returns:<br>
 	 * ch.foo.bar.Text
@@ -60,25 +58,147 @@ public class ClassUtilities
 		throw new IOException("Filetype " + f.getName() + " not supported!");
 	}
 
+	/**
+	 * Reads the source only up to the package declaration (or up to whatever
+	 * shows that there is none). Comments, string and character literals as
+	 * well as annotations in front of the package are skipped.
+	 */
 	private static String getPackageFromSource(File f) throws IOException
 	{
-		String s = new String(FileUtilities.readFile(f));
-
-		// cut all /* ... */ comments
-		Matcher mComments1 = pComment1.matcher(s);
-		s = mComments1.replaceAll("");
+		InputStream in = new BufferedInputStream(new FileInputStream(f), 4 * 1024);
+		skipByteOrderMark(in);
+		PushbackReader reader = new PushbackReader(new InputStreamReader(in), 2);
+
+		try
+		{
+			String token = nextToken(reader);
+
+			// annotations (package-info.java)
+			while(token != null && token.equals("@"))
+			{
+				token = nextToken(reader);
+				if(token != null && token.equals("interface")) return null; // annotation type
+				skipQualifiedName(reader);
+
+				token = nextToken(reader);
+				if(token != null && token.equals("("))
+				{
+					for(int depth = 1; depth > 0; )
+					{
+						token = nextToken(reader);
+						if(token == null) return null;
+						if(token.equals("(")) depth++;
+						else if(token.equals(")")) depth--;
+					}
+					token = nextToken(reader);
+				}
+			}
+
+			if(token == null || !token.equals("package")) return null;
+
+			StringBuffer sb = new StringBuffer();
+			for(token = nextToken(reader); token != null && !token.equals(";"); token = nextToken(reader))
+			{
+				sb.append(token);
+			}
+			return (token == null || sb.length() == 0) ? null : sb.toString();
+		} finally
+		{
+			reader.close();
+		}
+	}
 
-		// cut all // ... comments
-		Matcher mComments2 = pComment2.matcher(s);
-		s = mComments2.replaceAll("");
+	/**
+	 * Skips an UTF-8 byte order mark. It's done on the bytes since the
+	 * platform charset might not know it.
+	 */
+	private static void skipByteOrderMark(InputStream in) throws IOException
+	{
+		in.mark(3);
+		if(in.read() == 0xEF && in.read() == 0xBB && in.read() == 0xBF) return;
+		in.reset();
+	}
 
-		// cut after the first opening brace
-		int braceIndex = s.indexOf('{');
-		if(braceIndex > -1) s = s.substring(0, braceIndex);
+	/**
+	 * Returns the next token: an identifier, a literal or a single character.
+	 * Whitespace and comments are skipped.
+	 * 
+	 * @return The token or null at the end of the file.
+	 */
+	private static String nextToken(PushbackReader reader) throws IOException
+	{
+		while(true)
+		{
+			int c = reader.read();
+			if(c < 0) return null;
+			if(Character.isWhitespace(c)) continue;
+
+			if(c == '/')
+			{
+				int c2 = reader.read();
+				if(c2 == '/')
+				{
+					do { c = reader.read(); } while(c >= 0 && c != '\n' && c != '\r');
+					continue;
+				} else if(c2 == '*')
+				{
+					int last = 0;
+					for(c = reader.read(); c >= 0 && !(last == '*' && c == '/'); c = reader.read()) last = c;
+					continue;
+				}
+				if(c2 >= 0) reader.unread(c2);
+				return "/";
+			}
+
+			if(c == '"' || c == '\'')
+			{
+				StringBuffer sb = new StringBuffer().append((char)c);
+				for(int c2 = reader.read(); c2 >= 0; c2 = reader.read())
+				{
+					sb.append((char)c2);
+					if(c2 == '\\')
+					{
+						int escaped = reader.read();
+						if(escaped >= 0) sb.append((char)escaped);
+					} else if(c2 == c || c2 == '\n')
+					{
+						break;
+					}
+				}
+				return sb.toString();
+			}
+
+			if(Character.isJavaIdentifierStart(c))
+			{
+				StringBuffer sb = new StringBuffer().append((char)c);
+				for(c = reader.read(); c >= 0 && Character.isJavaIdentifierPart(c); c = reader.read())
+				{
+					sb.append((char)c);
+				}
+				if(c >= 0) reader.unread(c);
+				return sb.toString();
+			}
+
+			return String.valueOf((char)c);
+		}
+	}
 
-		// now, finally, check for the package
-		Matcher m = pPackage.matcher(s);
-		return (m.find()) ? m.group(1).replaceAll("\\s", "") : null;
+	/**
+	 * Skips the rest of a qualified name (".bar.Foo") after its first identifier.
+	 */
+	private static void skipQualifiedName(PushbackReader reader) throws IOException
+	{
+		while(true)
+		{
+			int c;
+			do { c = reader.read(); } while(c >= 0 && Character.isWhitespace(c));
+			if(c != '.')
+			{
+				if(c >= 0) reader.unread(c);
+				return;
+			}
+			nextToken(reader);
+		}
 	}
 
 	private static String getPackageFromClass(File f) throws IOException
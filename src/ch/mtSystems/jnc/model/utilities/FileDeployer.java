@@ -0,0 +1,249 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * FileDeployer keeps a copy of a directory tree up to date. A file is skipped if
+ * its size and modification time are unchanged or, if only the time differs, if
+ * the content is equal. New and changed files are hard linked (with ln, not on
+ * Windows). If that's not possible (e.g. another file system), they're copied
+ * with FileChannel.transferTo. The files are compared and copied concurrently.
+ */
+public class FileDeployer
+{
+	private static final int LINK_BATCH = 200; // files per ln call
+
+	private ExecutorService executor;
+	private volatile boolean useLinks = (File.separatorChar == '/');
+	private AtomicInteger unchanged = new AtomicInteger();
+	private AtomicInteger linked = new AtomicInteger();
+	private AtomicInteger copied = new AtomicInteger();
+	private AtomicLong unchangedBytes = new AtomicLong();
+	private AtomicLong linkedBytes = new AtomicLong();
+	private AtomicLong copiedBytes = new AtomicLong();
+
+
+	/**
+	 * @param executor Runs the comparisons and copies.
+	 */
+	public FileDeployer(ExecutorService executor)
+	{
+		this.executor = executor;
+	}
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Deploys all files of srcDir (recursively) into destDir. Files in destDir
+	 * which don't exist in srcDir are kept.
+	 */
+	public void deploy(File srcDir, File destDir) throws Exception
+	{
+		// walk the tree, the directories are created right away
+		final List<File> srcFiles = new LinkedList<File>();
+		final List<File> destFiles = new LinkedList<File>();
+		List<File> dirList = new LinkedList<File>();
+		dirList.add(srcDir);
+		dirList.add(destDir);
+
+		while(!dirList.isEmpty())
+		{
+			File curSrcDir = dirList.remove(0);
+			File curDestDir = dirList.remove(0);
+			if(!curDestDir.exists() && !curDestDir.mkdirs() && !curDestDir.exists())
+			{
+				throw new IOException("Unable to create \"" + curDestDir + "\"");
+			}
+
+			for(File fSrc : curSrcDir.listFiles())
+			{
+				File fDest = new File(curDestDir, fSrc.getName());
+				if(fSrc.isDirectory())
+				{
+					dirList.add(fSrc);
+					dirList.add(fDest);
+				} else
+				{
+					srcFiles.add(fSrc);
+					destFiles.add(fDest);
+				}
+			}
+		}
+
+		// compare
+		List<Future<Boolean>> comparisons = new LinkedList<Future<Boolean>>();
+		for(int i=0; i<srcFiles.size(); i++)
+		{
+			final File fSrc = srcFiles.get(i);
+			final File fDest = destFiles.get(i);
+			comparisons.add(executor.submit(new Callable<Boolean>()
+				{
+					public Boolean call() throws Exception
+					{
+						return isUnchanged(fSrc, fDest);
+					}
+				}));
+		}
+
+		// outdated files are removed, so they can be linked like new ones
+		Map<File, List<File>> hmToDeploy = new HashMap<File, List<File>>(); // per destination directory
+		List<File> changedFiles = new LinkedList<File>();
+		for(int i=0; i<srcFiles.size(); i++)
+		{
+			File fSrc = srcFiles.get(i);
+			File fDest = destFiles.get(i);
+			if(getResult(comparisons.get(i)))
+			{
+				unchanged.incrementAndGet();
+				unchangedBytes.addAndGet(fSrc.length());
+				continue;
+			}
+
+			if(fDest.exists() && !fDest.delete()) throw new IOException("Unable to replace \"" + fDest + "\"");
+			List<File> files = hmToDeploy.get(fDest.getParentFile());
+			if(files == null) hmToDeploy.put(fDest.getParentFile(), files = new LinkedList<File>());
+			files.add(fSrc);
+			changedFiles.add(fSrc);
+		}
+
+		// link
+		for(File dir : hmToDeploy.keySet())
+		{
+			List<File> files = hmToDeploy.get(dir);
+			for(int i=0; useLinks && i<files.size(); i+=LINK_BATCH)
+			{
+				link(files.subList(i, Math.min(files.size(), i + LINK_BATCH)), dir);
+			}
+		}
+
+		// copy what couldn't be linked
+		List<Future<Object>> copies = new LinkedList<Future<Object>>();
+		for(File dir : hmToDeploy.keySet())
+		{
+			for(final File fSrc : hmToDeploy.get(dir))
+			{
+				final File fDest = new File(dir, fSrc.getName());
+				if(fDest.exists() && fDest.length() == fSrc.length())
+				{
+					linked.incrementAndGet();
+					linkedBytes.addAndGet(fSrc.length());
+					continue;
+				}
+
+				copies.add(executor.submit(new Callable<Object>()
+					{
+						public Object call() throws Exception
+						{
+							copy(fSrc, fDest);
+							return null;
+						}
+					}));
+			}
+		}
+		for(Future<Object> copy : copies) getResult(copy);
+	}
+
+	public int getUnchanged() { return unchanged.get(); }
+	public int getLinked() { return linked.get(); }
+	public int getCopied() { return copied.get(); }
+	public long getUnchangedBytes() { return unchangedBytes.get(); }
+	public long getLinkedBytes() { return linkedBytes.get(); }
+	public long getCopiedBytes() { return copiedBytes.get(); }
+
+
+	// --------------- private methods ---------------
+
+	private boolean isUnchanged(File fSrc, File fDest) throws IOException
+	{
+		if(!fDest.exists() || fDest.length() != fSrc.length()) return false;
+		if(fDest.lastModified() == fSrc.lastModified()) return true;
+		if(!HashUtilities.hashFile(fSrc).equals(HashUtilities.hashFile(fDest))) return false;
+
+		fDest.setLastModified(fSrc.lastModified()); // no need to hash it again next time
+		return true;
+	}
+
+	/**
+	 * Hard links the files into the directory. Links aren't tried again after
+	 * a failure, the files which haven't been linked are copied.
+	 */
+	private void link(List<File> files, File dir) throws Exception
+	{
+		String[] cmd = new String[files.size() + 2];
+		cmd[0] = "ln";
+		for(int i=0; i<files.size(); i++) cmd[i+1] = files.get(i).getAbsolutePath();
+		cmd[cmd.length-1] = dir.getAbsolutePath();
+
+		try
+		{
+			if(ProcessEngine.getProcessEngine().run(cmd, null, null, 0, null) != 0) useLinks = false;
+		} catch(IOException ex)
+		{
+			useLinks = false; // no ln
+		}
+	}
+
+	/**
+	 * Copies through a temporary file, so an interrupted deployment never leaves
+	 * a file behind which looks complete.
+	 */
+	private void copy(File fSrc, File fDest) throws IOException
+	{
+		File tmpFile = File.createTempFile(fDest.getName(), ".tmp", fDest.getParentFile());
+		FileUtilities.transferFile(fSrc, tmpFile);
+		tmpFile.setLastModified(fSrc.lastModified());
+
+		if(!tmpFile.renameTo(fDest))
+		{
+			tmpFile.delete();
+			throw new IOException("Unable to create \"" + fDest + "\"");
+		}
+
+		copied.incrementAndGet();
+		copiedBytes.addAndGet(fSrc.length());
+	}
+
+	private <T> T getResult(Future<T> future) throws Exception
+	{
+		try
+		{
+			return future.get();
+		} catch(ExecutionException ex)
+		{
+			if(ex.getCause() instanceof Exception) throw (Exception)ex.getCause();
+			throw ex;
+		}
+	}
+}
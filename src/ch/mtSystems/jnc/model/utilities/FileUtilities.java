@@ -25,6 +25,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.security.CodeSource;
 
 
 public class FileUtilities
@@ -61,6 +64,72 @@ public class FileUtilities
 		inputStream.close();
 	}
 
+	/**
+	 * Copies the file with FileChannel.transferTo, so the system can copy it
+	 * without passing the content through the heap.
+	 */
+	public static void transferFile(File src, File dest) throws IOException
+	{
+		FileChannel in = new FileInputStream(src).getChannel();
+
+		try
+		{
+			FileChannel out = new FileOutputStream(dest).getChannel();
+			try
+			{
+				long size = in.size();
+				long pos = 0;
+				while(pos < size)
+				{
+					long transferred = in.transferTo(pos, size - pos, out);
+					if(transferred <= 0) break; // the file has been truncated meanwhile
+					pos += transferred;
+				}
+			} finally
+			{
+				out.close();
+			}
+		} finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Moves the file to its destination. It's written under a temporary name
+	 * first, so the destination is never seen half-written (e.g. by a concurrent
+	 * build). Where renaming replaces files, the destination is replaced
+	 * atomically. Elsewhere (Windows), an existing destination is deleted first
+	 * and might be missing for a moment.
+	 * 
+	 * @param namedByContent Whether the name is derived from the content (e.g. a hash).
+	 *                       An existing destination is kept then: it's the same file,
+	 *                       installed by someone else in the meantime.
+	 */
+	public static void installFile(File src, File dest, boolean namedByContent) throws IOException
+	{
+		File tmpFile = File.createTempFile(dest.getName(), ".tmp", dest.getParentFile());
+
+		if(!src.renameTo(tmpFile))
+		{
+			copyFile(src, tmpFile);
+			src.delete();
+		}
+
+		if(tmpFile.renameTo(dest)) return;
+		if(namedByContent && dest.exists())
+		{
+			tmpFile.delete();
+			return;
+		}
+
+		if(!dest.delete() || !tmpFile.renameTo(dest))
+		{
+			tmpFile.delete();
+			throw new IOException("Unable to install \"" + dest + "\"!");
+		}
+	}
+
 	public static byte[] readFile(File src) throws IOException
 	{
 		byte[] ba = new byte[(int)src.length()];
@@ -74,9 +143,140 @@ public class FileUtilities
 
 	public static File createTempDir(String prefix, String suffix) throws IOException
 	{
-		File f = File.createTempFile(prefix, suffix);
+		return createTempDir(prefix, suffix, null);
+	}
+
+	/**
+	 * Creates a temporary directory in the given directory.
+	 * 
+	 * @param parent The directory or null for the default temporary directory.
+	 */
+	public static File createTempDir(String prefix, String suffix, File parent) throws IOException
+	{
+		if(parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+		{
+			throw new IOException("Unable to create \"" + parent + "\"!");
+		}
+
+		File f = File.createTempFile(prefix, suffix, parent);
 		if(!f.delete()) throw new IOException("(1) Unable to create temporary directory!");
 		if(!f.mkdirs()) throw new IOException("(2) Unable to create temporary directory!");
 		return f;
 	}
+
+	/**
+	 * Deletes the directory in the background. It's renamed (to a unique
+	 * name-xyz.trash) first, so the deletion doesn't interfere with anything else.
+	 * The deleting thread doesn't keep the process alive: trash that is left when
+	 * the process ends is removed by deleteTrash.
+	 */
+	public static void deleteDirAsync(File dir)
+	{
+		File toDelete = dir;
+		if(!dir.getName().endsWith(".trash"))
+		{
+			File trash = new File(dir.getPath() + "-" + Long.toString(System.nanoTime(), 36) + ".trash");
+			if(dir.renameTo(trash)) toDelete = trash;
+		}
+
+		final File fDelete = toDelete;
+		Thread thread = new Thread("delete " + fDelete.getName())
+		{
+			public void run()
+			{
+				try
+				{
+					deleteDirRecursively(fDelete);
+				} catch(Exception ex)
+				{
+					// deleted concurrently by deleteTrash
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Deletes the trash directories left by deleteDirAsync in the background.
+	 * 
+	 * @param prefix The prefix of the directories to delete.
+	 */
+	public static void deleteTrash(File dir, String prefix)
+	{
+		File[] fa = dir.listFiles();
+		if(fa == null) return;
+
+		for(File f : fa)
+		{
+			if(f.isDirectory() && f.getName().startsWith(prefix) && f.getName().endsWith(".trash")) deleteDirAsync(f);
+		}
+	}
+
+	/**
+	 * Returns the directory JNC is installed in: the one of the jar (or the class
+	 * directory) it runs from. If that's unknown (e.g. in a native binary), it's
+	 * the working directory, like for the compilers and libraries.
+	 */
+	public static File getInstallDir()
+	{
+		try
+		{
+			CodeSource codeSource = FileUtilities.class.getProtectionDomain().getCodeSource();
+			if(codeSource != null && codeSource.getLocation().getProtocol().equals("file"))
+			{
+				File f = new File(codeSource.getLocation().toURI());
+				return (f.isFile()) ? f.getParentFile() : f;
+			}
+		} catch(Exception ex)
+		{
+			// use the working directory
+		}
+
+		return new File(".").getAbsoluteFile();
+	}
+
+	/**
+	 * Makes the file readable and writable for its owner only (File.setReadable
+	 * and File.setWritable, only available since Java 6).
+	 * 
+	 * @return False if the permissions couldn't be set.
+	 */
+	public static boolean restrictToOwner(File f)
+	{
+		try
+		{
+			// first for everybody, then for the owner only
+			Object[][] oaArgs = { { Boolean.FALSE, Boolean.FALSE }, { Boolean.TRUE, Boolean.TRUE } };
+			boolean ok = true;
+			for(String name : new String[] { "setReadable", "setWritable" })
+			{
+				Method m = File.class.getMethod(name, new Class<?>[] { boolean.class, boolean.class });
+				for(Object[] args : oaArgs) ok &= ((Boolean)m.invoke(f, args)).booleanValue();
+			}
+			return ok;
+		} catch(Exception ex)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the space available in the directory (File.getUsableSpace, only
+	 * available since Java 6).
+	 * 
+	 * @return The space in bytes or -1 if unknown.
+	 */
+	public static long getUsableSpace(File dir)
+	{
+		try
+		{
+			Method m = File.class.getMethod("getUsableSpace", new Class<?>[0]);
+			long space = ((Long)m.invoke(dir, new Object[0])).longValue();
+			return (space > 0) ? space : -1; // 0 if the directory doesn't exist
+		} catch(Exception ex)
+		{
+			return -1;
+		}
+	}
 }
@@ -0,0 +1,105 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+public class HashUtilities
+{
+	/**
+	 * Returns the SHA-1 hash of the file content as hex string.
+	 */
+	public static String hashFile(File f) throws IOException
+	{
+		MessageDigest md = createDigest();
+		InputStream inputStream = new FileInputStream(f);
+		byte[] ba = new byte[64 * 1024];
+
+		try
+		{
+			while(true)
+			{
+				int len = inputStream.read(ba);
+				if(len < 0) break;
+				md.update(ba, 0, len);
+			}
+		} finally
+		{
+			inputStream.close();
+		}
+
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Returns the SHA-1 hash of the given bytes as hex string.
+	 */
+	public static String hashBytes(byte[] ba)
+	{
+		MessageDigest md = createDigest();
+		md.update(ba);
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Returns the SHA-1 hash of the given string (UTF-8) as hex string.
+	 */
+	public static String hashString(String s)
+	{
+		try
+		{
+			return hashBytes(s.getBytes("UTF-8"));
+		} catch(IOException ex)
+		{
+			throw new RuntimeException(ex); // UTF-8 is always supported
+		}
+	}
+
+	public static String toHex(byte[] ba)
+	{
+		StringBuffer sb = new StringBuffer(ba.length * 2);
+		for(byte b : ba)
+		{
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+
+	// --------------- private methods ---------------
+
+	private static MessageDigest createDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-1");
+		} catch(NoSuchAlgorithmException ex)
+		{
+			throw new RuntimeException(ex); // SHA-1 is always available
+		}
+	}
+}
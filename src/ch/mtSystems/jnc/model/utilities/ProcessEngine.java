@@ -0,0 +1,274 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.model.utilities;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * ProcessEngine runs all external commands (gcj, ar, upx, nm...). The output
+ * of the processes is read by a shared pool of threads instead of new threads
+ * for every process. This matters since the gcjStubber runs thousands of commands.
+ * The engine also counts the processes, the time they took and their output.
+ */
+public class ProcessEngine
+{
+	private ExecutorService pumpExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("ProcessEngine-pump-"));
+	private ScheduledExecutorService timeoutExecutor =
+		Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("ProcessEngine-timeout-"));
+
+	private AtomicLong processesLaunched = new AtomicLong();
+	private AtomicLong processesTimedOut = new AtomicLong();
+	private AtomicLong processTime = new AtomicLong(); // nanoseconds
+	private AtomicLong outputBytes = new AtomicLong();
+
+
+	// --------------- public methods ---------------
+
+	/**
+	 * Starts the command. The output is passed to the listener line by line.
+	 * 
+	 * @param workingDir The working directory. Can be null.
+	 * @param env Variables to add to the environment. Can be null.
+	 * @param timeout The process is destroyed after this many milliseconds. 0 for no timeout.
+	 * @param listener Gets the output. Can be null, the output is read anyway.
+	 */
+	public Execution start(String[] cmd, File workingDir, Map<String, String> env,
+			long timeout, IProcessOutputListener listener) throws IOException
+	{
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		if(workingDir != null) pb.directory(workingDir);
+		if(env != null) pb.environment().putAll(env);
+
+		Execution execution = new Execution(pb.start(), listener);
+		processesLaunched.incrementAndGet();
+
+		if(timeout > 0) execution.scheduleTimeout(timeout);
+		return execution;
+	}
+
+	/**
+	 * Runs the command and returns its exit code. See start(...).
+	 */
+	public int run(String[] cmd, File workingDir, Map<String, String> env,
+			long timeout, IProcessOutputListener listener) throws Exception
+	{
+		return start(cmd, workingDir, env, timeout, listener).waitFor();
+	}
+
+	public long getProcessesLaunched() { return processesLaunched.get(); }
+	public long getProcessesTimedOut() { return processesTimedOut.get(); }
+
+	/**
+	 * Returns the summed up run time of all finished processes in milliseconds.
+	 */
+	public long getProcessTime() { return processTime.get() / 1000000; }
+
+	/**
+	 * Returns the number of bytes all processes wrote (standard and error output).
+	 */
+	public long getOutputBytes() { return outputBytes.get(); }
+
+
+	// --------------- inner classes ---------------
+
+	/**
+	 * A started process.
+	 */
+	public class Execution
+	{
+		private Process process;
+		private Future<Object> outputPump, errorPump;
+		private ScheduledFuture<?> timeoutTask;
+		private long startTime = System.nanoTime();
+		private volatile boolean timedOut;
+		private Integer exitCode;
+
+
+		private Execution(Process process, IProcessOutputListener listener) throws IOException
+		{
+			this.process = process;
+			process.getOutputStream().close(); // no input is ever written
+
+			outputPump = pumpExecutor.submit(new Pump(process.getInputStream(), listener, false));
+			errorPump = pumpExecutor.submit(new Pump(process.getErrorStream(), listener, true));
+		}
+
+		/**
+		 * Waits for the process and for all of its output to be passed to the listener.
+		 * 
+		 * @return The exit code of the process.
+		 * @throws IOException If reading the output failed.
+		 */
+		public synchronized int waitFor() throws Exception
+		{
+			if(exitCode != null) return exitCode.intValue();
+
+			int code = process.waitFor();
+			getResult(outputPump);
+			getResult(errorPump);
+			if(timeoutTask != null) timeoutTask.cancel(false);
+
+			processTime.addAndGet(System.nanoTime() - startTime);
+			exitCode = Integer.valueOf(code);
+			return code;
+		}
+
+		/**
+		 * Kills the process. Can be called from any thread.
+		 */
+		public void destroy()
+		{
+			process.destroy();
+		}
+
+		/**
+		 * Returns whether the process has been destroyed because it took too long.
+		 */
+		public boolean isTimedOut()
+		{
+			return timedOut;
+		}
+
+		private void scheduleTimeout(long timeout)
+		{
+			timeoutTask = timeoutExecutor.schedule(new Runnable()
+				{
+					public void run()
+					{
+						timedOut = true;
+						processesTimedOut.incrementAndGet();
+						process.destroy();
+					}
+				}, timeout, TimeUnit.MILLISECONDS);
+		}
+
+		private void getResult(Future<Object> future) throws Exception
+		{
+			try
+			{
+				future.get();
+			} catch(ExecutionException ex)
+			{
+				Throwable cause = ex.getCause();
+				if(cause instanceof Exception) throw (Exception)cause;
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Reads a stream of a process line by line.
+	 */
+	private class Pump implements Callable<Object>
+	{
+		private InputStream inputStream;
+		private IProcessOutputListener listener;
+		private boolean isError;
+
+		Pump(InputStream inputStream, IProcessOutputListener listener, boolean isError)
+		{
+			this.inputStream = new FilterInputStream(inputStream)
+				{
+					public int read() throws IOException
+					{
+						int b = super.read();
+						if(b >= 0) outputBytes.incrementAndGet();
+						return b;
+					}
+
+					public int read(byte[] ba, int off, int len) throws IOException
+					{
+						int read = super.read(ba, off, len);
+						if(read > 0) outputBytes.addAndGet(read);
+						return read;
+					}
+				};
+			this.listener = listener;
+			this.isError = isError;
+		}
+
+		public Object call() throws Exception
+		{
+			BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
+			try
+			{
+				for(String s = br.readLine(); s != null; s = br.readLine())
+				{
+					if(listener != null) listener.lineRead(s, isError);
+				}
+			} finally
+			{
+				br.close();
+			}
+			return null;
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory
+	{
+		private String prefix;
+		private AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix)
+		{
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+
+	// --------------- singleton pattern ---------------
+
+	/**
+	 * Returns the ProcessEngine instance.
+	 */
+	public static synchronized ProcessEngine getProcessEngine()
+	{
+		if(processEngine == null) processEngine = new ProcessEngine();
+		return processEngine;
+	}
+
+	private ProcessEngine() { }
+	private static ProcessEngine processEngine;
+}
@@ -23,6 +23,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,6 +32,7 @@ import java.util.regex.Pattern;
 public class SettingsMemory
 {
 	private static final File SETTINGS_FILE = new File(System.getProperty("user.home"), ".JNC.conf");
+	private static final File DEFAULT_JAR_STORE = new File(System.getProperty("user.home"), ".JNC.store");
 	private static final Pattern WIN_COMPILER_PATH_PATTERN = Pattern.compile("gcc-(\\d+?)-win");
 	private static final Pattern LIN_COMPILER_PATH_PATTERN = Pattern.compile("gcc-(\\d+?)-lin");
 
@@ -37,6 +40,13 @@ public class SettingsMemory
 	private boolean autoDetectCompilers = true;
 	private String winCompilerPath, linCompilerPath; // null (not set) or a value with length > 0
 	private String license; // null (not set) or a value with length > 0
+	private String jarStorePath; // null (default) or a value with length > 0
+	private int jarStoreSize = 1024; // MB, 0: unlimited
+	private String workers; // null (none) or "host[:port], ..."
+	private String scratchPath; // null (system default) or a value with length > 0
+
+	private Map<String, String> hmDetectedPaths = new HashMap<String, String>(); // pattern -> compiler path
+	private long detectionModified;
 
 
 	// -------------- public methods ---------------
@@ -103,11 +113,86 @@ public class SettingsMemory
 		save();
 	}
 
+	/**
+	 * Returns the directory where the compiled jars of all projects are stored.
+	 */
+	public File getJarStoreDir()
+	{
+		return (jarStorePath == null) ? DEFAULT_JAR_STORE : new File(jarStorePath);
+	}
+
+	public void setJarStorePath(String path)
+	{
+		jarStorePath = (path == null || path.length() == 0) ? null : path;
+		save();
+	}
+
+	/**
+	 * Returns the size limit of the jar store.
+	 * 
+	 * @return The size in MB or 0 if unlimited.
+	 */
+	public int getJarStoreSize()
+	{
+		return jarStoreSize;
+	}
+
+	public void setJarStoreSize(int size)
+	{
+		jarStoreSize = Math.max(0, size);
+		save();
+	}
+
+	/**
+	 * Returns the workers (JNC -worker) that compile jar entries.
+	 * 
+	 * @return "host" or "host:port" per worker, might be empty.
+	 */
+	public String[] getWorkers()
+	{
+		return (workers == null) ? new String[0] : workers.split("\\s*,\\s*");
+	}
+
+	public void setWorkers(String workers)
+	{
+		this.workers = (workers == null || workers.trim().length() == 0) ? null : workers.trim();
+		save();
+	}
+
+	/**
+	 * Returns the directory for the intermediate files of the compilations
+	 * (e.g. on a tmpfs). Projects can override it.
+	 * 
+	 * @return The directory or null for the default temporary directory.
+	 */
+	public File getScratchDir()
+	{
+		return (scratchPath == null) ? null : new File(scratchPath);
+	}
+
+	public void setScratchPath(String path)
+	{
+		scratchPath = (path == null || path.length() == 0) ? null : path;
+		save();
+	}
+
 
 	// --------------- private methods ---------------
 
-	private String detectCompilerPath(Pattern p)
+	/**
+	 * Returns the newest compiler directory in the working directory. It's only
+	 * scanned again if its content changed (modification date).
+	 */
+	private synchronized String detectCompilerPath(Pattern p)
 	{
+		long modified = (new File(".")).getAbsoluteFile().lastModified();
+		if(modified != detectionModified)
+		{
+			hmDetectedPaths.clear();
+			detectionModified = modified;
+		}
+		if(hmDetectedPaths.containsKey(p.pattern())) return hmDetectedPaths.get(p.pattern());
+
 		int iCur = 0;
 		String sCur = null;
 
@@ -126,6 +211,7 @@ public class SettingsMemory
 			}
 		}
 
+		hmDetectedPaths.put(p.pattern(), sCur);
 		return sCur;
 	}
 	
@@ -139,6 +225,10 @@ public class SettingsMemory
 			fw.write("winCompilerPath=" + winCompilerPath + "\n");
 			fw.write("linCompilerPath=" + linCompilerPath + "\n");
 			fw.write("license=" + license + "\n");
+			fw.write("jarStorePath=" + jarStorePath + "\n");
+			fw.write("jarStoreSize=" + jarStoreSize + "\n");
+			fw.write("workers=" + workers + "\n");
+			fw.write("scratchPath=" + scratchPath + "\n");
 			fw.flush();
 			fw.close();
 		} catch(Exception ex)
@@ -166,6 +256,10 @@ public class SettingsMemory
 				else if(sa[0].equals("winCompilerPath"))     winCompilerPath = sa[1];
 				else if(sa[0].equals("linCompilerPath"))     linCompilerPath = sa[1];
 				else if(sa[0].equals("license"))             license = sa[1];
+				else if(sa[0].equals("jarStorePath"))        jarStorePath = sa[1];
+				else if(sa[0].equals("jarStoreSize"))        jarStoreSize = Math.max(0, Integer.parseInt(sa[1]));
+				else if(sa[0].equals("workers"))             workers = sa[1];
+				else if(sa[0].equals("scratchPath"))         scratchPath = sa[1];
 			}
 
 			br.close();
@@ -21,16 +21,71 @@ package ch.mtSystems.jnc.view;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.util.LinkedList;
 import java.util.List;
 
+import ch.mtSystems.jnc.model.utilities.IProcessOutputListener;
+import ch.mtSystems.jnc.model.utilities.ProcessEngine;
 
+
+/**
+ * AutoCompiler compiles a project with a running CompileDaemon ("JNC -daemon").
+ * If no daemon is running, a new JNC process is started.
+ */
 public class AutoCompiler
 {
 	public static void main(String[] args) throws Exception
 	{
+		int port = CompileDaemon.DEFAULT_PORT;
+		String project = null;
+
+		for(int i=0; i<args.length; i++)
+		{
+			if(args[i].equals("-port") && i+1 < args.length)
+			{
+				try
+				{
+					port = Integer.parseInt(args[++i]);
+				} catch(NumberFormatException ex)
+				{
+					showUsage();
+					return;
+				}
+			} else if(project == null)
+			{
+				project = args[i];
+			} else
+			{
+				showUsage();
+				return;
+			}
+		}
+
+		if(project == null)
+		{
+			showUsage();
+			return;
+		}
+
+		File projectFile = null;
+		if(!project.equals("-debug"))
+		{
+			projectFile = new File(project);
+			if(!projectFile.exists() || projectFile.isDirectory())
+			{
+				showUsage();
+				return;
+			}
+
+			if(compileWithDaemon(port, projectFile)) return;
+		}
+
 		String cmd = "./JavaNativeCompiler";
 		if(!(new File(cmd)).exists() && !(new File(cmd+".exe")).exists())
 		{
@@ -40,51 +95,72 @@ public class AutoCompiler
 
 		List<String> lCmd = new LinkedList<String>();
 		lCmd.add(cmd);
-		
-		if(args.length != 1)
+
+		if(projectFile != null)
 		{
-			System.err.println("Usage: AutoCompiler project.jnc");
-			return;
+			lCmd.add("-compile");
+			lCmd.add(projectFile.toString());
 		}
 
-		if(!args[0].equals("-debug"))
-		{
-			File projectFile = new File(args[0]);
-			if(projectFile.exists() && !projectFile.isDirectory())
-			{
-				lCmd.add("-compile");
-				lCmd.add(projectFile.toString());
-			} else
+		ProcessEngine.getProcessEngine().run(lCmd.toArray(new String[0]), null, null, 0, new IProcessOutputListener()
 			{
-				System.err.println("Usage: AutoCompiler project.jnc");
-				return;
-			}
-		}
+				public void lineRead(String line, boolean isError)
+				{
+					if(isError) System.err.println(line);
+					else        System.out.println(line);
+				}
+			});
+	}
 
-		Process p = Runtime.getRuntime().exec(lCmd.toArray(new String[0]));
-		log(p.getInputStream(), false);
-		log(p.getErrorStream(), true);
+	private static void showUsage()
+	{
+		System.err.println("Usage: AutoCompiler [-port n] project.jnc");
 	}
-	
-	private static void log(final InputStream inputStream, final boolean isErrorStream)
+
+	/**
+	 * Returns false if no daemon of this user is listening on the given port.
+	 */
+	private static boolean compileWithDaemon(int port, File projectFile) throws IOException
 	{
-		new Thread()
+		String token = CompileDaemon.readToken(port);
+		if(token == null) return false;
+
+		Socket socket;
+		try
+		{
+			socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+		} catch(IOException ioex)
+		{
+			return false;
+		}
+
+		try
 		{
-			public void run()
+			PrintWriter pw = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+			pw.println(token);
+			pw.println("compile -1 " + projectFile.getAbsolutePath());
+
+			BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			for(String s = br.readLine(); s != null; s = br.readLine())
 			{
-				try
+				if(s.startsWith(CompileDaemon.OUTPUT))
 				{
-					BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-					for(String s = br.readLine(); s != null; s = br.readLine())
-					{
-						if(isErrorStream) System.err.println(s);
-						else              System.out.println(s);
-					}
-				} catch(Exception ex)
+					System.out.println(s.substring(CompileDaemon.OUTPUT.length()));
+				} else if(s.startsWith(CompileDaemon.RESULT))
 				{
-					ex.printStackTrace();
+					String result = s.substring(CompileDaemon.RESULT.length());
+					if(result.equals("done"))        System.out.println("\n\ndone");
+					else if(result.equals("failed")) System.out.println("\n\nfailed...");
+					else                             System.err.println("JNC daemon: " + result.replaceFirst("^error ", ""));
+					return true;
 				}
 			}
-		}.start();
+
+			System.err.println("The connection to the JNC daemon has been lost!");
+			return true;
+		} finally
+		{
+			socket.close();
+		}
 	}
 }
@@ -0,0 +1,303 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.view;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ch.mtSystems.jnc.model.ICompilationProgressLogger;
+import ch.mtSystems.jnc.model.JNCProject;
+import ch.mtSystems.jnc.model.NativeCompiler;
+import ch.mtSystems.jnc.model.utilities.FileUtilities;
+
+
+/**
+ * CompileDaemon stays resident and compiles projects on request. This saves
+ * the startup of a new process per compilation and keeps the in-memory caches
+ * (jar hashes, source metadata) warm.
+ * 
+ * The daemon only listens on localhost. Since other users of the host can connect
+ * as well, every connection starts with a token line. The token is created at
+ * startup and written to a file only the owner can read (see getTokenFile).
+ * Connections with a wrong token are dropped.
+ * 
+ * A request is a single line after the token: "compile threads /path/to/project.jnc"
+ * (threads: -1 to use the project setting) or "stop". The log of the compilation is
+ * streamed back with every line prefixed by OUTPUT, the last line is RESULT followed
+ * by "done", "failed" or "error message". If the client disconnects, the compilation
+ * is cancelled.
+ */
+public class CompileDaemon
+{
+	public final static int DEFAULT_PORT = 7391;
+
+	public final static String OUTPUT = "out ";
+	public final static String RESULT = "end ";
+
+	private ServerSocket serverSocket;
+	private ReentrantLock compileLock = new ReentrantLock();
+	private File tokenFile;
+	private String token;
+
+
+	public CompileDaemon(int port) throws IOException
+	{
+		serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+
+		byte[] ba = new byte[16];
+		new SecureRandom().nextBytes(ba);
+		StringBuffer sb = new StringBuffer();
+		for(byte b : ba) sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		token = sb.toString();
+
+		// the file is restricted before the token is written into it
+		tokenFile = getTokenFile(port);
+		tokenFile.delete();
+		if(!tokenFile.createNewFile() || !FileUtilities.restrictToOwner(tokenFile))
+		{
+			serverSocket.close();
+			throw new IOException("Unable to create \"" + tokenFile + "\" readable by its owner only!");
+		}
+		FileWriter fw = new FileWriter(tokenFile);
+		fw.write(token + "\n");
+		fw.close();
+	}
+
+
+	// --------------- public static methods ---------------
+
+	/**
+	 * Returns the file with the token of the daemon listening on the port.
+	 */
+	public static File getTokenFile(int port)
+	{
+		return new File(System.getProperty("user.home"), ".JNC.daemon" + ((port == DEFAULT_PORT) ? "" : "." + port));
+	}
+
+	/**
+	 * Returns the token of the daemon listening on the port or null if there's none.
+	 */
+	public static String readToken(int port)
+	{
+		try
+		{
+			BufferedReader br = new BufferedReader(new FileReader(getTokenFile(port)));
+			try
+			{
+				return br.readLine();
+			} finally
+			{
+				br.close();
+			}
+		} catch(IOException ioex)
+		{
+			return null;
+		}
+	}
+
+
+	// --------------- public methods ---------------
+
+	public void run()
+	{
+		System.out.println("JNC daemon listening on port " + serverSocket.getLocalPort());
+
+		try
+		{
+			while(!serverSocket.isClosed())
+			{
+				try
+				{
+					final Socket socket = serverSocket.accept();
+					new Thread()
+					{
+						public void run()
+						{
+							handleRequest(socket);
+						}
+					}.start();
+				} catch(IOException ioex)
+				{
+					if(!serverSocket.isClosed()) ioex.printStackTrace();
+				}
+			}
+		} finally
+		{
+			tokenFile.delete();
+		}
+
+		System.out.println("JNC daemon stopped");
+	}
+
+
+	// --------------- private methods ---------------
+
+	private void handleRequest(Socket socket)
+	{
+		try
+		{
+			final BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			final PrintWriter pw = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+
+			try
+			{
+				String clientToken = br.readLine();
+				if(clientToken == null || !MessageDigest.isEqual(clientToken.getBytes("UTF-8"), token.getBytes("UTF-8")))
+				{
+					System.out.println("connection with a wrong token dropped");
+					return;
+				}
+
+				String request = br.readLine();
+				if(request == null) return;
+
+				if(request.equals("stop"))
+				{
+					pw.println(RESULT + "done");
+					serverSocket.close();
+					return;
+				}
+
+				String[] sa = request.split(" ", 3);
+				if(sa.length != 3 || !sa[0].equals("compile"))
+				{
+					pw.println(RESULT + "error Unknown request: " + request);
+					return;
+				}
+
+				// the client doesn't send anything else, so reading only ends when it disconnects
+				final NativeCompiler[] compiler = new NativeCompiler[1];
+				final boolean[] disconnected = new boolean[1];
+				Thread watcher = new Thread("watch " + socket.getRemoteSocketAddress())
+				{
+					public void run()
+					{
+						try
+						{
+							while(br.read() >= 0) { }
+						} catch(IOException ioex)
+						{
+							// closed
+						}
+
+						NativeCompiler running;
+						synchronized(compiler)
+						{
+							disconnected[0] = true;
+							running = compiler[0];
+						}
+						if(running != null) running.cancel();
+					}
+				};
+				watcher.setDaemon(true);
+				watcher.start();
+
+				ICompilationProgressLogger logger = new ICompilationProgressLogger()
+				{
+					public void log(String s, boolean indent)
+					{
+						// the targets log concurrently
+						synchronized(pw)
+						{
+							String[] saLines = ((indent) ? "\t" + s : s).split("\n", -1);
+							for(int i=0; i<saLines.length; i++) pw.println(OUTPUT + saLines[i]);
+						}
+
+						// a cancellation before the compilation started is repeated here
+						NativeCompiler running;
+						synchronized(compiler)
+						{
+							running = (disconnected[0]) ? compiler[0] : null;
+						}
+						if(running != null && !running.isCancelled()) running.cancel();
+					}
+				};
+
+				int compileThreads = Integer.parseInt(sa[1]);
+				File projectFile = new File(sa[2]);
+				if(!projectFile.exists() || projectFile.isDirectory())
+				{
+					pw.println(RESULT + "error \"" + projectFile + "\" does not exist!");
+					return;
+				}
+
+				// compilations are not run concurrently, they would compete for the same outputs and caches
+				if(!compileLock.tryLock())
+				{
+					logger.log("waiting for the running compilation...", false);
+					compileLock.lock();
+				}
+
+				try
+				{
+					// the project is read again on every request since it might have been changed
+					JNCProject project = JNCProject.open(projectFile);
+					if(compileThreads > -1) project.setCompileThreads(compileThreads);
+
+					synchronized(compiler)
+					{
+						if(disconnected[0])
+						{
+							System.out.println("client of " + projectFile + " disconnected, not compiled");
+							return;
+						}
+						compiler[0] = new NativeCompiler(logger, project);
+					}
+
+					System.out.println("compiling " + projectFile);
+					boolean success = compiler[0].compile();
+					if(compiler[0].isCancelled()) System.out.println("client of " + projectFile + " disconnected, compilation cancelled");
+					pw.println(RESULT + ((success) ? "done" : "failed"));
+				} finally
+				{
+					compileLock.unlock();
+				}
+			} catch(Exception ex)
+			{
+				ex.printStackTrace();
+				pw.println(RESULT + "error " + ex);
+			}
+		} catch(IOException ioex)
+		{
+			ioex.printStackTrace();
+		} finally
+		{
+			try
+			{
+				socket.close();
+			} catch(IOException ioex)
+			{
+				ioex.printStackTrace();
+			}
+		}
+	}
+}
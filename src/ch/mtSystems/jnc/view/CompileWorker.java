@@ -0,0 +1,282 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.view;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import ch.mtSystems.jnc.model.Toolchain;
+import ch.mtSystems.jnc.model.WorkerPool;
+import ch.mtSystems.jnc.model.utilities.FileUtilities;
+import ch.mtSystems.jnc.model.utilities.IProcessOutputListener;
+import ch.mtSystems.jnc.model.utilities.ProcessEngine;
+import ch.mtSystems.jnc.model.utilities.SettingsMemory;
+
+
+/**
+ * CompileWorker compiles jar entries for other JNC instances (see WorkerPool).
+ * It uses the compilers configured in the settings and has to be started in the
+ * JNC directory since the jar flags refer to the libraries there.
+ * 
+ * Like the daemon, the worker only listens on the loopback interface by default.
+ * It can be bound to another address, but then only accepts the configured peers.
+ * There's no further authentication, so gcj is only run with the flags JNC uses
+ * for jars: flags like -B or -specs= would allow to run arbitrary programs.
+ */
+public class CompileWorker
+{
+	private static final Pattern[] ALLOWED_FLAGS =
+		{
+			Pattern.compile("-O[0-3s]?"),
+			Pattern.compile("-g[0-3]?"),
+			Pattern.compile("-w"),
+			Pattern.compile("-W(no-)?[a-z0-9-]+"),
+			Pattern.compile("-f(no-)?[a-z0-9-]+"),
+			Pattern.compile("-m(no-)?[a-z0-9-]+(=[a-z0-9-]+)?"),
+			Pattern.compile("-Ilibs/(win|lin)/gui/gui\\.jar")
+		};
+
+	private ServerSocket serverSocket;
+	private int slots;
+	private File jarDir;
+	private Set<InetAddress> allowedPeers; // null: all
+
+
+	/**
+	 * @param slots How many entries are compiled concurrently (0: one per processor).
+	 * @param bindAddress The address to listen on (null: loopback).
+	 * @param peers The hosts that may connect besides the local one (null: none, "*": all).
+	 */
+	public CompileWorker(int port, int slots, String bindAddress, String[] peers) throws IOException
+	{
+		InetAddress address = InetAddress.getByName((bindAddress == null) ? "127.0.0.1" : bindAddress);
+		serverSocket = new ServerSocket(port, 50, address);
+		this.slots = (slots > 0) ? slots : Runtime.getRuntime().availableProcessors();
+		jarDir = FileUtilities.createTempDir("JNCWorker", ".jars");
+
+		if(peers == null || !peers[0].equals("*"))
+		{
+			allowedPeers = new HashSet<InetAddress>();
+			if(peers != null)
+			{
+				for(String peer : peers) allowedPeers.addAll(Arrays.asList(InetAddress.getAllByName(peer)));
+			}
+		}
+	}
+
+
+	// --------------- public methods ---------------
+
+	public void run()
+	{
+		System.out.println("JNC worker listening on " + serverSocket.getInetAddress().getHostAddress() +
+				":" + serverSocket.getLocalPort() + " (" + slots + " slots)");
+
+		try
+		{
+			while(!serverSocket.isClosed())
+			{
+				try
+				{
+					final Socket socket = serverSocket.accept();
+					if(!isAllowed(socket.getInetAddress()))
+					{
+						System.out.println(socket.getInetAddress().getHostAddress() + " rejected (not an allowed peer)");
+						socket.close();
+						continue;
+					}
+
+					new Thread()
+					{
+						public void run()
+						{
+							handleConnection(socket);
+						}
+					}.start();
+				} catch(IOException ioex)
+				{
+					if(!serverSocket.isClosed()) ioex.printStackTrace();
+				}
+			}
+		} finally
+		{
+			FileUtilities.deleteDirRecursively(jarDir);
+		}
+	}
+
+
+	// --------------- private methods ---------------
+
+	private boolean isAllowed(InetAddress peer)
+	{
+		return allowedPeers == null || peer.isLoopbackAddress() || allowedPeers.contains(peer);
+	}
+
+	private static boolean isAllowedFlag(String flag)
+	{
+		for(Pattern p : ALLOWED_FLAGS)
+		{
+			if(p.matcher(flag).matches()) return true;
+		}
+		return false;
+	}
+
+	private void handleConnection(Socket socket)
+	{
+		File tmpDir = null;
+
+		try
+		{
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			if(!in.readUTF().equals(WorkerPool.PROTOCOL)) return;
+
+			String os = in.readUTF();
+			String compilerPath = (os.equals("win")) ?
+					SettingsMemory.getSettingsMemory().getWindowsCompilerPath() :
+					SettingsMemory.getSettingsMemory().getLinuxCompilerPath();
+			if(compilerPath == null)
+			{
+				out.writeUTF("error no compiler for " + os);
+				out.flush();
+				return;
+			}
+			Toolchain toolchain = Toolchain.getToolchain(new File(compilerPath));
+			File gcj = toolchain.getTool("gcj");
+			if(gcj == null)
+			{
+				out.writeUTF("error no gcj in " + compilerPath);
+				out.flush();
+				return;
+			}
+			out.writeUTF("ok " + toolchain.getVersion() + " " + slots);
+			out.flush();
+
+			// the jars are kept by their hash for all connections
+			List<String> classpath = new LinkedList<String>();
+			int jarCount = in.readInt();
+			for(int i=0; i<jarCount; i++)
+			{
+				String name = new File(in.readUTF()).getName();
+				String hash = in.readUTF();
+				File jarHashDir = new File(jarDir, hash.replaceAll("[^0-9a-f]", ""));
+				File jar = new File(jarHashDir, name);
+
+				out.writeBoolean(!jar.exists());
+				out.flush();
+				if(!jar.exists())
+				{
+					File tmpJar = File.createTempFile("jar", ".tmp", jarDir);
+					WorkerPool.readFile(in, tmpJar);
+					jarHashDir.mkdirs();
+					FileUtilities.installFile(tmpJar, jar, true);
+				}
+				classpath.add("-I" + jar);
+			}
+
+			tmpDir = FileUtilities.createTempDir("JNCTemp", ".worker");
+			System.out.println(socket.getInetAddress().getHostAddress() + " connected (" + os + ", " + jarCount + " jars)");
+
+			while(true)
+			{
+				String request;
+				try
+				{
+					request = in.readUTF();
+				} catch(EOFException ex)
+				{
+					break;
+				}
+				if(request.equals(WorkerPool.BYE)) break;
+				if(!request.equals(WorkerPool.JOB)) throw new IOException("Unknown request: " + request);
+
+				// keep the name only (Foo.class), the content decides anyway
+				String entryName = new File(in.readUTF()).getName();
+				boolean useClasspath = in.readBoolean();
+				List<String> cmd = new LinkedList<String>();
+				cmd.add(gcj.toString());
+				int argCount = in.readInt();
+				for(int i=0; i<argCount; i++)
+				{
+					// the connection is dropped, so the entry is compiled locally
+					String arg = WorkerPool.readText(in);
+					if(!isAllowedFlag(arg)) throw new IOException("Flag not allowed: " + arg);
+					cmd.add(arg);
+				}
+
+				File entryFile = new File(tmpDir, entryName);
+				File objectFile = new File(tmpDir, entryName + ".o");
+				WorkerPool.readFile(in, entryFile);
+
+				cmd.add("-c"); cmd.add(entryFile.toString());
+				cmd.add("-o"); cmd.add(objectFile.toString());
+				if(useClasspath) cmd.addAll(classpath);
+
+				final StringBuffer output = new StringBuffer();
+				int exitCode = ProcessEngine.getProcessEngine().run(cmd.toArray(new String[0]), null, null, 0,
+					new IProcessOutputListener()
+					{
+						public void lineRead(String line, boolean isError)
+						{
+							if(isError) output.append(line).append('\n');
+						}
+					});
+
+				boolean ok = (exitCode == 0 && objectFile.exists());
+				out.writeBoolean(ok);
+				WorkerPool.writeText(out, output.toString());
+				if(ok) WorkerPool.writeFile(out, objectFile);
+				out.flush();
+
+				entryFile.delete();
+				objectFile.delete();
+			}
+		} catch(Exception ex)
+		{
+			System.out.println(socket.getInetAddress().getHostAddress() + " failed: " + ex);
+		} finally
+		{
+			if(tmpDir != null) FileUtilities.deleteDirRecursively(tmpDir);
+
+			try
+			{
+				socket.close();
+			} catch(IOException ioex)
+			{
+				ioex.printStackTrace();
+			}
+		}
+	}
+}
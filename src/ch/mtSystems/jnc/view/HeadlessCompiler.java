@@ -0,0 +1,184 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.view;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ch.mtSystems.jnc.model.ICompilationProgressLogger;
+import ch.mtSystems.jnc.model.ICompletionNotifier;
+import ch.mtSystems.jnc.model.JNCProject;
+import ch.mtSystems.jnc.model.NativeCompiler;
+
+
+/**
+ * HeadlessCompiler compiles a project from the command line ("JNC -compile").
+ * It never touches SWT. So it starts faster and also works without a display
+ * (e.g. on build servers).
+ */
+public class HeadlessCompiler
+{
+	public static void main(String[] args) throws Exception
+	{
+		long start = System.currentTimeMillis();
+		File projectFile = null;
+		int compileThreads = -1;
+		boolean showStartupTime = false;
+		String timingReport = null;
+
+		for(int i=0; i<args.length; i++)
+		{
+			if(args[i].equals("-compile"))
+			{
+				continue; // passed on by JNC
+			} else if(args[i].equals("-threads") && i+1 < args.length)
+			{
+				try
+				{
+					compileThreads = Integer.parseInt(args[++i]);
+				} catch(NumberFormatException ex)
+				{
+					showUsage();
+					return;
+				}
+			} else if(args[i].equals("-timing") && i+1 < args.length)
+			{
+				timingReport = args[++i];
+			} else if(args[i].equals("-startupTime"))
+			{
+				showStartupTime = true;
+			} else if(projectFile == null)
+			{
+				projectFile = new File(args[i]);
+			} else
+			{
+				showUsage();
+				return;
+			}
+		}
+
+		if(projectFile == null)
+		{
+			showUsage();
+			return;
+		}
+
+		if(!projectFile.exists() || projectFile.isDirectory())
+		{
+			System.out.println("\"" + projectFile + "\" does not exist!");
+			System.out.println();
+			showUsage();
+			return;
+		}
+
+		JNCProject project = JNCProject.open(projectFile);
+		if(compileThreads > -1) project.setCompileThreads(compileThreads);
+
+		final NativeCompiler jc = new NativeCompiler(new ICompilationProgressLogger()
+			{
+				public void log(String s, boolean indent)
+				{
+					if(indent) System.out.print("\t");
+					System.out.println(s);
+				}
+			}, project);
+
+		jc.setCompletionNotifier(new ICompletionNotifier()
+			{
+				public void compilationDone(boolean success)
+				{
+					// the terminal bell: once on success, twice on failure
+					System.out.print((success) ? "\007" : "\007\007");
+					System.out.flush();
+				}
+			});
+
+		if(timingReport != null) jc.setTimingReport(new File(timingReport + ".json"), new File(timingReport + ".trace.json"));
+
+		long startupTime = System.currentTimeMillis() - start;
+
+		// Ctrl+C: stop the running commands and wait until the temporary files are removed
+		final CountDownLatch finished = new CountDownLatch(1);
+		Thread cancelHook = new Thread()
+		{
+			public void run()
+			{
+				jc.cancel();
+
+				try
+				{
+					finished.await(30, TimeUnit.SECONDS);
+				} catch(InterruptedException ex) { }
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(cancelHook);
+
+		try
+		{
+			if(jc.compile())          System.out.println("\n\ndone");
+			else if(jc.isCancelled()) System.out.println("\n\ncancelled");
+			else                      System.out.println("\n\nfailed...");
+		} finally
+		{
+			finished.countDown();
+		}
+
+		try
+		{
+			Runtime.getRuntime().removeShutdownHook(cancelHook);
+		} catch(IllegalStateException ex) { } // already shutting down
+
+		if(showStartupTime) printStartupTime(startupTime);
+	}
+
+	private static void showUsage()
+	{
+		System.out.println("Usage: JNC -compile [-threads n] [-timing name] [-startupTime] file.jnc");
+		System.out.println("-threads: Number of jar entries to compile concurrently (0: one per processor).");
+		System.out.println("-timing: Write the duration of every phase to name.json and name.trace.json.");
+		System.out.println("-startupTime: Compare the startup time with the initialization of SWT.");
+	}
+
+	/**
+	 * The previous command line path initialized the SWT display (license check, beep).
+	 * For comparison, this is measured after the compilation. SWT is only accessed by
+	 * reflection, so nothing of it is loaded unless asked for.
+	 */
+	private static void printStartupTime(long startupTime)
+	{
+		System.out.println("\nstartup until compilation: " + startupTime + " ms");
+
+		long start = System.currentTimeMillis();
+		try
+		{
+			Class<?> display = Class.forName("org.eclipse.swt.widgets.Display");
+			display.getMethod("getDefault", new Class<?>[0]).invoke(null, new Object[0]);
+			System.out.println("additional SWT display initialization of the previous path: " +
+					(System.currentTimeMillis() - start) + " ms");
+		} catch(Throwable th)
+		{
+			if(th instanceof InvocationTargetException) th = th.getCause();
+			System.out.println("SWT display initialization of the previous path failed after " +
+					(System.currentTimeMillis() - start) + " ms: " + th);
+		}
+	}
+}
@@ -47,8 +47,6 @@ import org.eclipse.swt.widgets.ToolItem;
 
 import ch.mtSystems.jnc.control.AppController;
 import ch.mtSystems.jnc.control.IAppControllerListener;
-import ch.mtSystems.jnc.model.ICompilationProgressLogger;
-import ch.mtSystems.jnc.model.NativeCompiler;
 import ch.mtSystems.jnc.model.JNCProject;
 import ch.mtSystems.jnc.model.utilities.SettingsMemory;
 import ch.mtSystems.jnc.view.dialogs.SettingsDialog;
@@ -335,57 +333,31 @@ public class JNC implements SelectionListener, IAppControllerListener
 
 	public static void main(String[] args) throws Exception
 	{
+		// the command line modes don't need SWT, see Launcher
+		if(Launcher.runCommand(args)) return;
+
 		checkLicense();
 		File projectFile = null;
 
-		if(args.length > 0)
+		for(int i=0; i<args.length; i++)
 		{
-			for(int i=0; i<args.length; i++)
-			{
-				if(args[i].equals("--help"))
-				{
-					showHelp();
-					return;
-				}
-			}
-
-			if(args.length == 2)
+			if(args[i].equals("--help") || projectFile != null)
 			{
-				if(!args[0].equals("-compile"))
-				{
-					showHelp();
-					return;
-				}
-			}
-
-			projectFile = new File((args.length == 2) ? args[1] : args[0]);
-			if(!projectFile.exists() || projectFile.isDirectory())
-			{
-				System.out.println("\"" + projectFile + "\" does not exist!");
-				System.out.println();
-				showHelp();
+				Launcher.showHelp();
 				return;
 			}
 
-			if(args.length == 2)
-			{
-				JNCProject project = JNCProject.open(projectFile);
-				NativeCompiler jc = new NativeCompiler(new ICompilationProgressLogger()
-					{
-						public void log(String s, boolean indent)
-						{
-							if(indent) System.out.print("\t");
-							System.out.println(s);
-						}
-					}, project);
-
-				if(jc.compile()) System.out.println("\n\ndone");
-				else             System.out.println("\n\nfailed...");
+			projectFile = new File(args[i]);
+		}
 
-				return;
-			}
+		if(projectFile != null && (!projectFile.exists() || projectFile.isDirectory()))
+		{
+			System.out.println("\"" + projectFile + "\" does not exist!");
+			System.out.println();
+			Launcher.showHelp();
+			return;
 		}
-		
+
 		new JNC(projectFile);
 		shell.setSize(500, 500);
 		shell.setImage(loadImage("icon.ico"));
@@ -416,11 +388,4 @@ public class JNC implements SelectionListener, IAppControllerListener
 			Display.getDefault().update();
 		}
 	}
-	
-	private static void showHelp()
-	{
-		System.out.println("JNC usage: JNC [-compile] [file.jnc]");
-		System.out.println("-compile: Directly compile the given JNC project file.");
-		System.out.println("file.jnc: The file to open or compile.");
-	}
 }
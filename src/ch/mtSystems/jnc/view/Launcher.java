@@ -0,0 +1,209 @@
+/*
+ *   JavaNativeCompiler - A Java to native compiler.
+ *   Copyright (C) 2006  Marco Trudel <mtrudel@gmx.ch>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package ch.mtSystems.jnc.view;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import ch.mtSystems.jnc.model.JarStore;
+import ch.mtSystems.jnc.model.WorkerPool;
+import ch.mtSystems.jnc.model.utilities.SettingsMemory;
+
+
+/**
+ * Launcher is the main class of JNC. It runs the command line modes itself and
+ * only loads the GUI (JNC) otherwise. It mustn't refer to any SWT class: the
+ * command line modes also have to work without SWT (e.g. on build servers).
+ */
+public class Launcher
+{
+	public static void main(String[] args) throws Exception
+	{
+		if(!runCommand(args)) JNC.main(args);
+	}
+
+	/**
+	 * Runs the command line mode given by the arguments.
+	 * 
+	 * @return False if the arguments are for the GUI.
+	 */
+	public static boolean runCommand(String[] args) throws Exception
+	{
+		if(args.length > 0 && args[0].equals("-daemon"))
+		{
+			startDaemon(args);
+			return true;
+		}
+
+		if(args.length > 0 && args[0].equals("-worker"))
+		{
+			startWorker(args);
+			return true;
+		}
+
+		if(args.length > 0 && args[0].equals("-store"))
+		{
+			runStoreCommand(args);
+			return true;
+		}
+
+		if(Arrays.asList(args).contains("-compile"))
+		{
+			HeadlessCompiler.main(args);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Shows the usage, also used by the GUI for unknown arguments.
+	 */
+	static void showHelp()
+	{
+		System.out.println("JNC usage: JNC [-compile [-threads n] [-timing name] [-startupTime]] [file.jnc]");
+		System.out.println("           JNC -daemon [port]");
+		System.out.println("           JNC -worker [-bind address] [-allow host,...] [port [slots]]");
+		System.out.println("           JNC -store list|verify|gc");
+		System.out.println("-compile: Directly compile the given JNC project file (without GUI).");
+		System.out.println("-threads: Number of jar entries to compile concurrently (0: one per processor).");
+		System.out.println("-timing: Write the duration of every phase to name.json and name.trace.json (Chrome trace).");
+		System.out.println("-startupTime: Compare the startup time with the initialization of SWT.");
+		System.out.println("-daemon: Stay resident and compile the projects requested by AutoCompiler (port: " + CompileDaemon.DEFAULT_PORT + ").");
+		System.out.println("-worker: Compile jar entries for the JNC instances which have this host configured as worker");
+		System.out.println("         (port: " + WorkerPool.DEFAULT_PORT + ", slots: concurrent entries, default one per processor).");
+		System.out.println("         It listens on the loopback interface unless bound to another address and only");
+		System.out.println("         accepts the local host and the allowed hosts (\"*\": all, only use in a trusted network).");
+		System.out.println("-store: List, verify (remove damaged entries) or shrink the store of compiled jars to its size limit.");
+		System.out.println("file.jnc: The file to open or compile.");
+	}
+
+
+	// --------------- private methods ---------------
+
+	private static void startDaemon(String[] args) throws Exception
+	{
+		int port = CompileDaemon.DEFAULT_PORT;
+		if(args.length > 2)
+		{
+			showHelp();
+			return;
+		} else if(args.length == 2)
+		{
+			try
+			{
+				port = Integer.parseInt(args[1]);
+			} catch(NumberFormatException ex)
+			{
+				showHelp();
+				return;
+			}
+		}
+
+		(new CompileDaemon(port)).run();
+	}
+
+	private static void startWorker(String[] args) throws Exception
+	{
+		String bindAddress = null;
+		String[] peers = null;
+		List<String> alNumbers = new ArrayList<String>();
+
+		for(int i=1; i<args.length; i++)
+		{
+			if(args[i].equals("-bind") && i+1 < args.length)
+			{
+				bindAddress = args[++i];
+			} else if(args[i].equals("-allow") && i+1 < args.length)
+			{
+				peers = args[++i].split("\\s*,\\s*");
+			} else
+			{
+				alNumbers.add(args[i]);
+			}
+		}
+
+		int port = WorkerPool.DEFAULT_PORT;
+		int slots = 0;
+		if(alNumbers.size() > 2)
+		{
+			showHelp();
+			return;
+		}
+
+		try
+		{
+			if(alNumbers.size() > 0) port = Integer.parseInt(alNumbers.get(0));
+			if(alNumbers.size() > 1) slots = Integer.parseInt(alNumbers.get(1));
+		} catch(NumberFormatException ex)
+		{
+			showHelp();
+			return;
+		}
+
+		(new CompileWorker(port, slots, bindAddress, peers)).run();
+	}
+
+	private static void runStoreCommand(String[] args) throws Exception
+	{
+		if(args.length != 2)
+		{
+			showHelp();
+			return;
+		}
+
+		SettingsMemory settings = SettingsMemory.getSettingsMemory();
+		JarStore store = JarStore.getStore(settings.getJarStoreDir());
+
+		if(args[1].equals("list"))
+		{
+			long size = 0;
+			List<JarStore.Entry> entries = store.list();
+			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+			for(JarStore.Entry entry : entries)
+			{
+				System.out.println(dateFormat.format(new Date(entry.getLastUsed())) + "  " +
+						(entry.getSize() / 1024) + "KB  " + entry.getFile().getName() +
+						(entry.getFile().isDirectory() ? " (" + entry.getFileCount() + " objects)" : ""));
+				size += entry.getSize();
+			}
+			System.out.println(entries.size() + " entries, " + (size / 1024 / 1024) + "MB of " +
+					((settings.getJarStoreSize() == 0) ? "unlimited" : settings.getJarStoreSize() + "MB") +
+					" in " + store.getDir());
+		} else if(args[1].equals("verify"))
+		{
+			List<File> removed = store.verify();
+			for(File f : removed) System.out.println("removed " + f);
+			System.out.println(removed.size() + " damaged or left over file(s) removed");
+		} else if(args[1].equals("gc"))
+		{
+			List<File> removed = store.collectGarbage(settings.getJarStoreSize() * 1024L * 1024L, true);
+			for(File f : removed) System.out.println("removed " + f);
+			System.out.println(removed.size() + " file(s) removed");
+		} else
+		{
+			showHelp();
+		}
+	}
+}
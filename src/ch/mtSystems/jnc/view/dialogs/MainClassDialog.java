@@ -49,7 +49,7 @@ import org.eclipse.swt.widgets.Shell;
 
 import ch.mtSystems.jnc.control.AppController;
 import ch.mtSystems.jnc.model.JNCProject;
-import ch.mtSystems.jnc.model.utilities.ClassUtilities;
+import ch.mtSystems.jnc.model.utilities.ClassMetadataCache;
 import ch.mtSystems.jnc.view.utilities.LayoutUtilities;
 
 
@@ -416,7 +416,9 @@ public class MainClassDialog extends Dialog implements SelectionListener
 
 		if(bFromFiles.getSelection() || bFromDirectory.getSelection())
 		{
-			choosenClass = ClassUtilities.getClassName(new File(sSelected));
+			ClassMetadataCache metadataCache = AppController.getAppController().getCurrentProject().getMetadataCache();
+			choosenClass = metadataCache.getClassName(new File(sSelected));
+			metadataCache.save();
 		} else if(bFromJar.getSelection())
 		{
 			choosenClass = sSelected.substring(0, sSelected.lastIndexOf('.')).replaceAll("/", ".");
@@ -19,6 +19,8 @@
 
 package ch.mtSystems.jnc.view.dialogs;
 
+import java.io.File;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.SelectionListener;
@@ -31,6 +33,7 @@ import org.eclipse.swt.widgets.DirectoryDialog;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Text;
 
 import ch.mtSystems.jnc.model.utilities.SettingsMemory;
@@ -44,8 +47,9 @@ public class SettingsDialog extends Dialog implements SelectionListener
 	
 	
 	private Shell shell;
-	private Text tWinCompilerPath, tLinCompilerPath, tLicense;
-	private Button bAutoDetect, bOpenWin, bOpenLin, bOk, bCancel;
+	private Text tWinCompilerPath, tLinCompilerPath, tLicense, tJarStorePath, tWorkers, tScratchPath;
+	private Spinner sJarStoreSize;
+	private Button bAutoDetect, bOpenWin, bOpenLin, bOpenJarStore, bOpenScratch, bOk, bCancel;
 
 
 	public SettingsDialog(Shell parent)
@@ -67,7 +71,8 @@ public class SettingsDialog extends Dialog implements SelectionListener
 			SettingsMemory.getSettingsMemory().setAutoDetectCompilers(autoDetect);
 			updateCompilerPaths();
 			SettingsMemory.getSettingsMemory().setAutoDetectCompilers(!autoDetect);
-		} else if(e.getSource() == bOpenWin || e.getSource() == bOpenLin)
+		} else if(e.getSource() == bOpenWin || e.getSource() == bOpenLin ||
+				e.getSource() == bOpenJarStore || e.getSource() == bOpenScratch)
 		{
 			DirectoryDialog dirDialog = new DirectoryDialog(shell);
 			String ret = dirDialog.open();
@@ -76,6 +81,12 @@ public class SettingsDialog extends Dialog implements SelectionListener
 			if(e.getSource() == bOpenWin)
 			{
 				tWinCompilerPath.setText(ret);
+			} else if(e.getSource() == bOpenJarStore)
+			{
+				tJarStorePath.setText(ret);
+			} else if(e.getSource() == bOpenScratch)
+			{
+				tScratchPath.setText(ret);
 			} else
 			{
 				tLinCompilerPath.setText(ret);
@@ -92,6 +103,10 @@ public class SettingsDialog extends Dialog implements SelectionListener
 				SettingsMemory.getSettingsMemory().setLinuxCompilerPath((linPath.equals(NO_COMP_SET)) ? null : linPath);
 			}
 			SettingsMemory.getSettingsMemory().setLicense(tLicense.getText());
+			SettingsMemory.getSettingsMemory().setJarStorePath(tJarStorePath.getText());
+			SettingsMemory.getSettingsMemory().setJarStoreSize(sJarStoreSize.getSelection());
+			SettingsMemory.getSettingsMemory().setWorkers(tWorkers.getText());
+			SettingsMemory.getSettingsMemory().setScratchPath(tScratchPath.getText());
 			shell.dispose();
 		} else if(e.getSource() == bCancel)
 		{
@@ -109,7 +124,7 @@ public class SettingsDialog extends Dialog implements SelectionListener
 		Shell parent = getParent();
 		shell = new Shell(parent, SWT.DIALOG_TRIM|SWT.APPLICATION_MODAL|SWT.RESIZE);
 		shell.setText("Settings");
-		shell.setSize(400, 300);
+		shell.setSize(400, 470);
 		shell.setLayout(new GridLayout());
 
 		buildContens(shell);
@@ -154,6 +169,46 @@ public class SettingsDialog extends Dialog implements SelectionListener
 		bOpenLin.setImage(JNC.loadImage("open.png"));
 		bOpenLin.addSelectionListener(this);
 		
+		Group groupJarStore = new Group(mainComposite, SWT.SHADOW_ETCHED_IN);
+		groupJarStore.setLayout(new GridLayout(3, false));
+		groupJarStore.setLayoutData(LayoutUtilities.createGridData(GridData.FILL_HORIZONTAL, 2, 1));
+		groupJarStore.setText("Compiled Jars (shared by all projects)");
+
+		(new Label(groupJarStore, SWT.NONE)).setText("Directory:");
+
+		tJarStorePath = new Text(groupJarStore, SWT.BORDER);
+		tJarStorePath.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+		bOpenJarStore = new Button(groupJarStore, SWT.NONE);
+		bOpenJarStore.setImage(JNC.loadImage("open.png"));
+		bOpenJarStore.addSelectionListener(this);
+
+		(new Label(groupJarStore, SWT.NONE)).setText("Size (MB, 0: unlimited):");
+
+		sJarStoreSize = new Spinner(groupJarStore, SWT.BORDER);
+		sJarStoreSize.setMinimum(0);
+		sJarStoreSize.setMaximum(1024 * 1024);
+		sJarStoreSize.setLayoutData(LayoutUtilities.createGridData(2, 1));
+
+		Group groupScratch = new Group(mainComposite, SWT.SHADOW_ETCHED_IN);
+		groupScratch.setLayout(new GridLayout(3, false));
+		groupScratch.setLayoutData(LayoutUtilities.createGridData(GridData.FILL_HORIZONTAL, 2, 1));
+		groupScratch.setText("Intermediate Files (empty: system default)");
+
+		(new Label(groupScratch, SWT.NONE)).setText("Directory:");
+
+		tScratchPath = new Text(groupScratch, SWT.BORDER);
+		tScratchPath.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+		bOpenScratch = new Button(groupScratch, SWT.NONE);
+		bOpenScratch.setImage(JNC.loadImage("open.png"));
+		bOpenScratch.addSelectionListener(this);
+
+		(new Label(mainComposite, SWT.NONE)).setText("Workers (host:port, ...):");
+
+		tWorkers = new Text(mainComposite, SWT.BORDER);
+		tWorkers.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
 		(new Label(mainComposite, SWT.NONE)).setText("JNC License:");
 		
 		tLicense = new Text(mainComposite, SWT.BORDER);
@@ -181,6 +236,20 @@ public class SettingsDialog extends Dialog implements SelectionListener
 
 		String license = SettingsMemory.getSettingsMemory().getLicense();
 		if(license != null) tLicense.setText(license);
+
+		tJarStorePath.setText(SettingsMemory.getSettingsMemory().getJarStoreDir().toString());
+		sJarStoreSize.setSelection(SettingsMemory.getSettingsMemory().getJarStoreSize());
+
+		StringBuffer sbWorkers = new StringBuffer();
+		for(String worker : SettingsMemory.getSettingsMemory().getWorkers())
+		{
+			if(sbWorkers.length() > 0) sbWorkers.append(", ");
+			sbWorkers.append(worker);
+		}
+		tWorkers.setText(sbWorkers.toString());
+
+		File scratchDir = SettingsMemory.getSettingsMemory().getScratchDir();
+		if(scratchDir != null) tScratchPath.setText(scratchDir.toString());
 	}
 	
 	private void updateCompilerPaths()
@@ -19,9 +19,13 @@
 
 package ch.mtSystems.jnc.view.pages;
 
+import java.io.File;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.SelectionListener;
 import org.eclipse.swt.graphics.Font;
@@ -29,11 +33,14 @@ import org.eclipse.swt.graphics.FontData;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
 
 import ch.mtSystems.jnc.control.AppController;
 import ch.mtSystems.jnc.model.JNCProject;
@@ -42,14 +49,17 @@ import ch.mtSystems.jnc.view.dialogs.InputDialog;
 import ch.mtSystems.jnc.view.utilities.LayoutUtilities;
 
 
-public class AdvancedSettingsPage extends WizzardPage implements SelectionListener, DisposeListener
+public class AdvancedSettingsPage extends WizzardPage implements SelectionListener, ModifyListener, DisposeListener
 {
 	private static Image imgAdd = JNC.loadImage("flagAdd.png");
 	private static Image imgRemove = JNC.loadImage("flagRemove.png");
 
 	private Table tGcjFlags;
 	private Button bAddFlag, bRemoveFlag, bShowCommands;
-	private Button bExcludeGui, bExcludeJce, bAddGnuRegex, bDontCacheJars;
+	private Button bExcludeGui, bExcludeJce, bAddGnuRegex, bDontCacheJars, bIncrementalCompilation, bPruneClasses;
+	private Button bSharedJars;
+	private Spinner sCompileThreads;
+	private Text tExtraRoots, tScratchDir;
 
 
 	public AdvancedSettingsPage()
@@ -117,6 +127,39 @@ public class AdvancedSettingsPage extends WizzardPage implements SelectionListen
 		bDontCacheJars = new Button(groupMiscellaneous, SWT.CHECK);
 		bDontCacheJars.setText("Don't cache compiled jars");
 		bDontCacheJars.addSelectionListener(this);
+
+		bIncrementalCompilation = new Button(groupMiscellaneous, SWT.CHECK);
+		bIncrementalCompilation.setText("Compile incrementally (cache an object per package, project needs to be saved)");
+		bIncrementalCompilation.addSelectionListener(this);
+
+		bSharedJars = new Button(groupMiscellaneous, SWT.CHECK);
+		bSharedJars.setText("Compile jars into shared libraries in the \"lib\" directory (Linux only)");
+		bSharedJars.addSelectionListener(this);
+
+		bPruneClasses = new Button(groupMiscellaneous, SWT.CHECK);
+		bPruneClasses.setText("Only compile the classes of jars that are reachable from the main class and the sources");
+		bPruneClasses.addSelectionListener(this);
+
+		Composite rootsComposite = new Composite(groupMiscellaneous, SWT.NONE);
+		rootsComposite.setLayout(LayoutUtilities.createGridLayout(2, 0));
+		rootsComposite.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+		new Label(rootsComposite, SWT.NONE).setText("Also keep (loaded by reflection, e.g. \"org.foo.Bar, org.bar.*\"):");
+		tExtraRoots = new Text(rootsComposite, SWT.BORDER);
+		tExtraRoots.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+		Composite scratchComposite = new Composite(groupMiscellaneous, SWT.NONE);
+		scratchComposite.setLayout(LayoutUtilities.createGridLayout(2, 0));
+		scratchComposite.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+		new Label(scratchComposite, SWT.NONE).setText("Directory for intermediate files (empty: from the settings):");
+		tScratchDir = new Text(scratchComposite, SWT.BORDER);
+		tScratchDir.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+		Composite threadsComposite = new Composite(groupMiscellaneous, SWT.NONE);
+		threadsComposite.setLayout(LayoutUtilities.createGridLayout(2, 0));
+		new Label(threadsComposite, SWT.NONE).setText("Parallel jar compilations (0: one per processor):");
+		sCompileThreads = new Spinner(threadsComposite, SWT.BORDER);
+		sCompileThreads.setMinimum(0);
+		sCompileThreads.setMaximum(256);
 		
 
 		JNC.getNextButton().setVisible(true);
@@ -185,12 +228,46 @@ public class AdvancedSettingsPage extends WizzardPage implements SelectionListen
 		{
 			JNCProject project = AppController.getAppController().getCurrentProject();
 			project.setDontCacheJars(bDontCacheJars.getSelection());
+		} else if(e.getSource() == bIncrementalCompilation)
+		{
+			JNCProject project = AppController.getAppController().getCurrentProject();
+			project.setIncrementalCompilation(bIncrementalCompilation.getSelection());
+		} else if(e.getSource() == bSharedJars)
+		{
+			JNCProject project = AppController.getAppController().getCurrentProject();
+			project.setSharedJars(bSharedJars.getSelection());
+		} else if(e.getSource() == bPruneClasses)
+		{
+			JNCProject project = AppController.getAppController().getCurrentProject();
+			project.setPruneClasses(bPruneClasses.getSelection());
+			tExtraRoots.setEnabled(bPruneClasses.getSelection());
 		}
 	}
 
 	public void widgetDefaultSelected(SelectionEvent e) { }
 
 
+	// --------------- ModifyListener ---------------
+
+	public void modifyText(ModifyEvent e)
+	{
+		if(e.getSource() == sCompileThreads)
+		{
+			JNCProject project = AppController.getAppController().getCurrentProject();
+			project.setCompileThreads(sCompileThreads.getSelection());
+		} else if(e.getSource() == tExtraRoots)
+		{
+			JNCProject project = AppController.getAppController().getCurrentProject();
+			project.setExtraRoots(tExtraRoots.getText().split(","));
+		} else if(e.getSource() == tScratchDir)
+		{
+			JNCProject project = AppController.getAppController().getCurrentProject();
+			String path = tScratchDir.getText().trim();
+			project.setScratchDir((path.length() == 0) ? null : new File(path));
+		}
+	}
+
+
 	// --------------- DisposeListener ---------------
 
 	public void widgetDisposed(DisposeEvent e)
@@ -218,5 +295,23 @@ public class AdvancedSettingsPage extends WizzardPage implements SelectionListen
 		bExcludeJce.setSelection(project.getExcludeJce());
 		bAddGnuRegex.setSelection(project.getAddGnuRegex());
 		bDontCacheJars.setSelection(project.getDontCacheJars());
+		bIncrementalCompilation.setSelection(project.getIncrementalCompilation());
+		sCompileThreads.setSelection(project.getCompileThreads());
+		sCompileThreads.addModifyListener(this);
+
+		StringBuffer sbRoots = new StringBuffer();
+		for(String root : project.getExtraRoots())
+		{
+			if(sbRoots.length() > 0) sbRoots.append(", ");
+			sbRoots.append(root);
+		}
+		bSharedJars.setSelection(project.getSharedJars());
+		bPruneClasses.setSelection(project.getPruneClasses());
+		tExtraRoots.setText(sbRoots.toString());
+		tExtraRoots.setEnabled(project.getPruneClasses());
+		tExtraRoots.addModifyListener(this);
+
+		if(project.getScratchDir() != null) tScratchDir.setText(project.getScratchDir().toString());
+		tScratchDir.addModifyListener(this);
 	}
 }
@@ -33,6 +33,7 @@ import org.eclipse.swt.graphics.FontData;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.FileDialog;
@@ -58,6 +59,7 @@ public class BasicSettingsPage extends WizzardPage implements ModifyListener, Se
 	private Button bLinux, bOpenLinux;
 	private Button bMac, bOpenMac;
 	private Button bOmitStripping, bOmitPacking, bDisableOptimisation;
+	private Combo cPackingLevel;
 
 	private boolean ignoreEvents = false;
 
@@ -168,7 +170,7 @@ public class BasicSettingsPage extends WizzardPage implements ModifyListener, Se
 		bOpenMac.setEnabled(false);
 
 		Composite tmpComposite2 = new Composite(groupExecutableSettings, SWT.NONE);
-		tmpComposite2.setLayout(LayoutUtilities.createGridLayout(3, 0, 20));
+		tmpComposite2.setLayout(LayoutUtilities.createGridLayout(4, 0, 20));
 		tmpComposite2.setLayoutData(LayoutUtilities.createGridData(GridData.FILL_HORIZONTAL, 3, 0, 10, -1));
 		
 		bOmitStripping = new Button(tmpComposite2, SWT.CHECK);
@@ -178,6 +180,13 @@ public class BasicSettingsPage extends WizzardPage implements ModifyListener, Se
 		bOmitPacking = new Button(tmpComposite2, SWT.CHECK);
 		bOmitPacking.setText("Omit packing");
 		bOmitPacking.addSelectionListener(this);
+
+		// index 0: best, 1-9: level 9-1
+		cPackingLevel = new Combo(tmpComposite2, SWT.READ_ONLY);
+		cPackingLevel.add("best (slowest)");
+		for(int i=9; i>0; i--) cPackingLevel.add("level " + i + ((i == 1) ? " (fastest)" : ""));
+		cPackingLevel.setToolTipText("upx compression level");
+		cPackingLevel.addSelectionListener(this);
 		
 		bDisableOptimisation = new Button(tmpComposite2, SWT.CHECK);
 		bDisableOptimisation.setText("Disable optimization");
@@ -304,6 +313,12 @@ public class BasicSettingsPage extends WizzardPage implements ModifyListener, Se
 		{
 			AppController.getAppController().getCurrentProject().
 					setOmitPacking(bOmitPacking.getSelection());
+			cPackingLevel.setEnabled(!bOmitPacking.getSelection());
+		} else if(e.getSource() == cPackingLevel)
+		{
+			int index = cPackingLevel.getSelectionIndex();
+			AppController.getAppController().getCurrentProject().
+					setPackingLevel((index == 0) ? 0 : 10 - index);
 		} else if(e.getSource() == bDisableOptimisation)
 		{
 			AppController.getAppController().getCurrentProject().
@@ -368,6 +383,8 @@ public class BasicSettingsPage extends WizzardPage implements ModifyListener, Se
 		
 		bOmitStripping.setSelection(project.getOmitStripping());
 		bOmitPacking.setSelection(project.getOmitPacking());
+		cPackingLevel.select((project.getPackingLevel() == 0) ? 0 : 10 - project.getPackingLevel());
+		cPackingLevel.setEnabled(!project.getOmitPacking());
 		bDisableOptimisation.setSelection(project.getDisableOptimisation());
 
 		updateWindowsSettings();
@@ -19,6 +19,12 @@
 
 package ch.mtSystems.jnc.view.pages;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
@@ -37,13 +43,36 @@ import ch.mtSystems.jnc.control.AppController;
 import ch.mtSystems.jnc.model.ICompilationProgressLogger;
 import ch.mtSystems.jnc.model.NativeCompiler;
 import ch.mtSystems.jnc.view.JNC;
+import ch.mtSystems.jnc.view.utilities.BeepNotifier;
 import ch.mtSystems.jnc.view.utilities.LayoutUtilities;
 
 
 public class CompilationPage extends WizzardPage implements SelectionListener, DisposeListener, ICompilationProgressLogger
 {
+	private final static int FLUSH_INTERVAL = 100; // ms
+	private final static int MAX_LOG_CHARS = 200000; // older output is only in the log file
+
 	private Text tLog;
-	private Button bBeep, bCompile;
+	private Button bBeep, bCompile, bCancel;
+	private NativeCompiler jc;
+
+	// The compile thread only queues the log, the GUI thread shows it in batches.
+	// So the compilation never waits for the GUI.
+	private StringBuffer pendingLog = new StringBuffer();
+	private boolean logEmpty;
+	private File logFile;
+	private Writer logWriter;
+	private boolean compiling;
+	private Runnable logFlusher = new Runnable()
+		{
+			public void run()
+			{
+				if(tLog.isDisposed()) return;
+
+				flushLog();
+				if(compiling) tLog.getDisplay().timerExec(FLUSH_INTERVAL, this);
+			}
+		};
 
 
 	public CompilationPage()
@@ -59,7 +88,7 @@ public class CompilationPage extends WizzardPage implements SelectionListener, D
 		tLog.setLayoutData(new GridData(GridData.FILL_BOTH));
 
 		Composite tmpComposite = new Composite(JNC.getContentComposite(), SWT.NONE);
-		tmpComposite.setLayout(LayoutUtilities.createGridLayout(2, 0));
+		tmpComposite.setLayout(LayoutUtilities.createGridLayout(3, 0));
 		tmpComposite.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
 
 		bBeep = new Button(tmpComposite, SWT.CHECK);
@@ -72,6 +101,11 @@ public class CompilationPage extends WizzardPage implements SelectionListener, D
 		bCompile.setText("Compile");
 		bCompile.addSelectionListener(this);
 
+		bCancel = new Button(tmpComposite, SWT.NONE);
+		bCancel.setText("Cancel");
+		bCancel.setEnabled(false);
+		bCancel.addSelectionListener(this);
+
 		// keep a little space at the bottom
 		new Composite(JNC.getContentComposite(), SWT.NONE).setLayoutData(new GridData(0, 40));
 
@@ -96,6 +130,10 @@ public class CompilationPage extends WizzardPage implements SelectionListener, D
 		} else if(e.getSource() == bCompile)
 		{
 			compile(Display.getDefault());
+		} else if(e.getSource() == bCancel)
+		{
+			bCancel.setEnabled(false);
+			jc.cancel();
 		}
 	}
 
@@ -113,28 +151,30 @@ public class CompilationPage extends WizzardPage implements SelectionListener, D
 
 	// --------------- CompilationProgressLogger ---------------
 
-	public void log(final String s, final boolean indent)
+	public void log(String s, boolean indent)
 	{
-		tLog.getDisplay().syncExec(new Runnable()
-				{
-					public void run()
-					{
-						if(tLog.getCharCount() > 0) tLog.append("\n");
-						if(indent) tLog.append("\t");
-						tLog.append(s);
-					}
-				});
+		synchronized(pendingLog)
+		{
+			queueLog(((logEmpty) ? "" : "\n") + ((indent) ? "\t" : "") + s);
+			logEmpty = false;
+		}
 	}
 
 	// --------------- private methods ---------------
 
 	private void compile(final Display d)
 	{
-		final NativeCompiler jc = new NativeCompiler(this, AppController.getAppController().getCurrentProject());
+		jc = new NativeCompiler(this, AppController.getAppController().getCurrentProject());
+		jc.setCompletionNotifier(new BeepNotifier());
 
 		tLog.setText("");
+		openLogFile();
 		JNC.getPreviousButton().setEnabled(false);
 		bCompile.setEnabled(false);
+		bCancel.setEnabled(true);
+
+		compiling = true;
+		d.timerExec(FLUSH_INTERVAL, logFlusher);
 
 		new Thread()
 		{
@@ -142,19 +182,26 @@ public class CompilationPage extends WizzardPage implements SelectionListener, D
 			{
 				try
 				{
-					if(jc.compile()) syncLog("\n\ndone", d);
-					else             syncLog("\n\nfailed...", d);
+					if(jc.compile())          queueLog("\n\ndone");
+					else if(jc.isCancelled()) queueLog("\n\ncancelled");
+					else                      queueLog("\n\nfailed...");
 				} catch(Exception ex)
 				{
 					ex.printStackTrace();
-					syncLog("\n\nfailed:\n", d);
-					syncLog(ex.toString(), d);
+					queueLog("\n\nfailed:\n");
+					queueLog(ex.toString());
 				}
 
-				d.syncExec(new Runnable()
+				closeLogFile();
+				d.asyncExec(new Runnable()
 						{
 							public void run()
 							{
+								if(tLog.isDisposed()) return;
+
+								compiling = false;
+								flushLog();
+								bCancel.setEnabled(false);
 								bCompile.setEnabled(true);
 								JNC.getPreviousButton().setEnabled(true);
 							}
@@ -163,11 +210,100 @@ public class CompilationPage extends WizzardPage implements SelectionListener, D
 		}.start();
 	}
 
-	private void syncLog(final String s, Display d)
+	/**
+	 * The complete log is written to "compilation.log" in the cache directory of
+	 * the project or to a temporary file if the project hasn't been saved yet.
+	 */
+	private void openLogFile()
 	{
-		d.syncExec(new Runnable()
+		synchronized(pendingLog)
+		{
+			pendingLog.setLength(0);
+			logEmpty = true;
+
+			try
+			{
+				File cacheDir = AppController.getAppController().getCurrentProject().getCacheDir();
+				if(cacheDir != null && (cacheDir.exists() || cacheDir.mkdirs()))
+				{
+					logFile = new File(cacheDir, "compilation.log");
+				} else
 				{
-					public void run() { tLog.append(s); }
-				});
+					logFile = File.createTempFile("JNCCompilation", ".log");
+					logFile.deleteOnExit();
+				}
+
+				logWriter = new BufferedWriter(new FileWriter(logFile));
+			} catch(IOException ioex)
+			{
+				ioex.printStackTrace();
+				logFile = null;
+				logWriter = null;
+			}
+		}
+	}
+
+	private void closeLogFile()
+	{
+		synchronized(pendingLog)
+		{
+			if(logWriter == null) return;
+
+			try
+			{
+				logWriter.close();
+			} catch(IOException ioex)
+			{
+				ioex.printStackTrace();
+			}
+			logWriter = null;
+		}
+	}
+
+	private void queueLog(String s)
+	{
+		synchronized(pendingLog)
+		{
+			pendingLog.append(s);
+
+			if(logWriter == null) return;
+			try
+			{
+				logWriter.write(s);
+			} catch(IOException ioex)
+			{
+				ioex.printStackTrace();
+				logWriter = null;
+			}
+		}
+	}
+
+	/**
+	 * Shows the queued log. Only the last MAX_LOG_CHARS characters are kept,
+	 * a widget with more text gets slow.
+	 */
+	private void flushLog()
+	{
+		String s;
+		synchronized(pendingLog)
+		{
+			if(pendingLog.length() == 0) return;
+			s = pendingLog.toString();
+			pendingLog.setLength(0);
+		}
+
+		if(tLog.getCharCount() + s.length() <= MAX_LOG_CHARS)
+		{
+			tLog.append(s);
+			return;
+		}
+
+		String text = tLog.getText() + s;
+		int start = text.indexOf('\n', text.length() - MAX_LOG_CHARS / 2);
+		if(start < 0) start = text.length() - MAX_LOG_CHARS / 2;
+
+		String note = (logFile == null) ? "[...]" : "[... the complete log is in \"" + logFile + "\"]";
+		tLog.setText(note + text.substring(start));
+		tLog.setSelection(tLog.getCharCount());
 	}
 }